@@ -0,0 +1,65 @@
+package io.github.jwharm.javagi.examples.benchmarks;
+
+import org.gnome.gobject.GObject;
+import org.gnome.gtk.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measure the "bind" callback of a SignalListItemFactory, as it is used in the
+ * ColumnViewDatagrid and ListViewer examples: a native signal emission that
+ * calls a Java lambda, which sets the text of an Inscription.
+ * <p>
+ * This benchmark creates a GTK widget, so it needs a display.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BindBenchmark {
+
+    private static final int ROWS = 1000;
+
+    private SignalListItemFactory factory;
+    private ListItem listitem;
+    private Inscription inscription;
+    private String[] rows;
+    private int next = 0;
+
+    @Setup
+    public void setup() {
+        if (!Gtk.initCheck())
+            throw new IllegalStateException("Cannot initialize GTK (no display available)");
+
+        rows = new String[ROWS];
+        for (int i = 0; i < ROWS; i++)
+            rows[i] = "col1 " + i;
+
+        // The bind callback is the same as in the ColumnViewDatagrid example,
+        // but the text is taken from an array, because a ListItem that is not
+        // part of a list widget doesn't have an item.
+        factory = new SignalListItemFactory();
+        factory.onBind(item -> {
+            var li = (ListItem) item;
+            var cell = (Inscription) li.getChild();
+            cell.setText(rows[next++ % ROWS]);
+        });
+
+        inscription = new Inscription(null);
+        listitem = GObject.newInstance(ListItem.getType());
+        listitem.setChild(inscription);
+    }
+
+    @Benchmark
+    public void bindCallback() {
+        factory.emitBind(listitem);
+    }
+
+    @Benchmark
+    public void setText() {
+        inscription.setText(rows[next++ % ROWS]);
+    }
+}
@@ -0,0 +1,47 @@
+package io.github.jwharm.javagi.examples.benchmarks;
+
+import org.gnome.gio.ListStore;
+import org.gnome.gtk.StringObject;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compare adding items to a ListStore one by one, with adding them all at
+ * once. Every append is a native call that emits an "items-changed" signal.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ListStoreBenchmark {
+
+    @Param({"1000", "100000"})
+    public int size;
+
+    private StringObject[] items;
+
+    @Setup
+    public void setup() {
+        items = new StringObject[size];
+        for (int i = 0; i < size; i++)
+            items[i] = new StringObject("item " + i);
+    }
+
+    @Benchmark
+    public ListStore<StringObject> append() {
+        var store = new ListStore<StringObject>(StringObject.getType());
+        for (var item : items)
+            store.append(item);
+        return store;
+    }
+
+    @Benchmark
+    public ListStore<StringObject> splice() {
+        var store = new ListStore<StringObject>(StringObject.getType());
+        store.splice(0, 0, items);
+        return store;
+    }
+}
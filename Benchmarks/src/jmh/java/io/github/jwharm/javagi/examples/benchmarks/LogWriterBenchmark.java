@@ -0,0 +1,65 @@
+package io.github.jwharm.javagi.examples.benchmarks;
+
+import io.github.jwharm.javagi.examples.logging.SLF4JLogWriterFunc;
+import org.gnome.glib.LogField;
+import org.gnome.glib.LogLevelFlags;
+import org.gnome.glib.LogWriterOutput;
+import org.openjdk.jmh.annotations.*;
+
+import java.lang.foreign.Arena;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measure the conversion of a GLib log message to SLF4J in the
+ * SLF4JLogWriterFunc of the Logging example. The SLF4J backend is a no-op
+ * logger that has no enabled levels, so this measures how fast a message
+ * below the enabled level is discarded.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LogWriterBenchmark {
+
+    private Arena arena;
+    private SLF4JLogWriterFunc writer;
+    private Set<LogLevelFlags> flags;
+    private LogField[] fields;
+
+    @Setup
+    public void setup() {
+        arena = Arena.ofConfined();
+        writer = new SLF4JLogWriterFunc();
+        flags = Set.of(LogLevelFlags.LEVEL_MESSAGE);
+
+        // The same fields that g_log() creates
+        fields = new LogField[] {
+                field("PRIORITY", "5"),
+                field("GLIB_OLD_LOG_API", "1"),
+                field("MESSAGE", "Hello world"),
+                field("GLIB_DOMAIN", "benchmark")
+        };
+    }
+
+    @TearDown
+    public void tearDown() {
+        arena.close();
+    }
+
+    // Create a log field with a NUL-terminated string value
+    private LogField field(String key, String value) {
+        var field = new LogField(arena);
+        field.writeKey(key, arena);
+        field.writeValue(arena.allocateFrom(value));
+        field.writeLength(-1);
+        return field;
+    }
+
+    @Benchmark
+    public LogWriterOutput run() {
+        return writer.run(flags, fields);
+    }
+}
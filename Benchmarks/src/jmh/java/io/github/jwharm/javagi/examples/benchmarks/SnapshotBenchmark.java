@@ -0,0 +1,84 @@
+package io.github.jwharm.javagi.examples.benchmarks;
+
+import org.gnome.gdk.RGBA;
+import org.gnome.graphene.Rect;
+import org.gnome.gsk.RenderNode;
+import org.gnome.gtk.Snapshot;
+import org.openjdk.jmh.annotations.*;
+
+import java.lang.foreign.Arena;
+import java.util.concurrent.TimeUnit;
+
+import static java.lang.Math.PI;
+
+/**
+ * Measure the drawing code of the MediaStream example: one
+ * {@code Snapshot.appendColor} call and one {@code Snapshot.appendCairo}
+ * call with a sequence of Cairo operations.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SnapshotBenchmark {
+
+    private static final float WIDTH = 200;
+    private static final float HEIGHT = 200;
+
+    private Arena arena;
+    private RGBA foreground;
+    private RGBA background;
+    private double rotation = 0;
+
+    @Setup
+    public void setup() {
+        arena = Arena.ofConfined();
+        foreground = new RGBA(0, 0, 0, 1, arena);
+        background = new RGBA(0.9f, 0.75f, 0.15f, 1, arena);
+    }
+
+    @TearDown
+    public void tearDown() {
+        arena.close();
+    }
+
+    @Benchmark
+    public RenderNode appendColor() {
+        var snapshot = new Snapshot();
+        snapshot.appendColor(background, Rect.alloc().init(0, 0, WIDTH, HEIGHT));
+        return snapshot.freeToNode();
+    }
+
+    @Benchmark
+    public RenderNode nuclearSnapshot() {
+        var snapshot = new Snapshot();
+        rotation += 0.01;
+
+        // Same as Animation.nuclearSnapshot() in the MediaStream example
+        final double RADIUS = 0.3;
+        snapshot.appendColor(background, Rect.alloc().init(0, 0, WIDTH, HEIGHT));
+        float size = Math.min(WIDTH, HEIGHT);
+        snapshot.appendCairo(Rect.alloc()
+                        .init((WIDTH - size) / 2.0f, (HEIGHT - size) / 2.0f, size, size))
+                .setSourceRGBA(
+                        foreground.readRed(),
+                        foreground.readGreen(),
+                        foreground.readBlue(),
+                        foreground.readAlpha())
+                .translate(WIDTH / 2.0, HEIGHT / 2.0)
+                .scale(size, size)
+                .rotate(rotation)
+
+                .arc(0, 0, 0.1, -PI, PI)
+                .fill()
+
+                .setLineWidth(RADIUS)
+                .setDash(new double[] {RADIUS * PI / 3}, 0.0)
+                .arc(0, 0, RADIUS, -PI, PI)
+                .stroke();
+
+        return snapshot.freeToNode();
+    }
+}
@@ -0,0 +1,46 @@
+package io.github.jwharm.javagi.examples.benchmarks;
+
+import org.gnome.gtk.TextBuffer;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measure loading a large text into a TextBuffer with
+ * {@code TextBuffer.setText}, as the Notepad and CodeEditor examples do when
+ * a file is opened.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TextBufferBenchmark {
+
+    // Size of the text in bytes
+    @Param({"1048576", "16777216"})
+    public int size;
+
+    private TextBuffer buffer;
+    private String text;
+    private int length;
+
+    @Setup
+    public void setup() {
+        var line = "The quick brown fox jumps over the lazy dog. 0123456789\n";
+        var sb = new StringBuilder(size);
+        while (sb.length() + line.length() <= size)
+            sb.append(line);
+        text = sb.toString();
+        length = text.getBytes(StandardCharsets.UTF_8).length;
+        buffer = new TextBuffer(null);
+    }
+
+    @Benchmark
+    public int setText() {
+        buffer.setText(text, length);
+        return buffer.getCharCount();
+    }
+}
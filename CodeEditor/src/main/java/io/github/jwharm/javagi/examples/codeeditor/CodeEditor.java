@@ -5,6 +5,9 @@ import org.gnome.gio.ApplicationFlags;
 
 public class CodeEditor extends Application {
 
+    // The log domain of the timing messages
+    static final String LOG_DOMAIN = "codeeditor";
+
     public static void main(String[] args) {
         var app = new CodeEditor();
         app.run(args);
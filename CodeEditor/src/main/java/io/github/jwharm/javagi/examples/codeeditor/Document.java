@@ -0,0 +1,320 @@
+package io.github.jwharm.javagi.examples.codeeditor;
+
+import org.javagi.base.GErrorException;
+import org.javagi.base.Out;
+import org.gnome.gio.File;
+import org.gnome.glib.GLib;
+import org.gnome.gtk.TextTagTable;
+import org.gnome.gtksourceview.Buffer;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * A file that is open in a tab of the editor.
+ * <p>
+ * The text buffer of a document is only created when its tab is activated for
+ * the first time, and then the contents of the file are loaded
+ * asynchronously. A document that is not modified can drop its buffer to free
+ * memory; the file is loaded again when the tab is activated again.
+ * <p>
+ * Every loaded document has its own {@link EditJournal}. Files that are larger
+ * than the "codeeditor.largefile" system property (in bytes) are edited
+ * through a {@link LargeFile} window instead, without a journal.
+ */
+public final class Document {
+
+    /**
+     * Whether the contents of the file are in the buffer.
+     */
+    public enum State {
+        UNLOADED,
+        LOADING,
+        LOADED
+    }
+
+    /**
+     * Callback that is notified when the file has been loaded.
+     */
+    @FunctionalInterface
+    public interface Loaded {
+        /**
+         * @param error the error that occurred, or null when the file was
+         *              loaded successfully
+         */
+        void finished(Exception error);
+    }
+
+    // Files of at least this size are opened in large-file mode
+    private static final long LARGE_FILE = Long.getLong("codeeditor.largefile", 64L * 1024 * 1024);
+
+    private File file;
+    private final int unnamed;
+    private Buffer buffer = null;
+    private State state = State.UNLOADED;
+    private boolean saving = false;
+    private long lastUsed = 0;
+
+    // The sliding window over a large file (or null for a normal file)
+    private LargeFile large = null;
+
+    // Records the unsaved edits, to recover them after a crash
+    private EditJournal journal = null;
+
+    // False while the buffer is replaced with the contents of the file
+    private boolean journaling = true;
+
+    /**
+     * Create a document.
+     *
+     * @param file    the file, or null for a new document
+     * @param unnamed a number to distinguish new documents
+     */
+    public Document(File file, int unnamed) {
+        this.file = file;
+        this.unnamed = unnamed;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public void setFile(File file) {
+        this.file = file;
+    }
+
+    /**
+     * The buffer, or null when the document is not loaded.
+     */
+    public Buffer getBuffer() {
+        return buffer;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public boolean isSaving() {
+        return saving;
+    }
+
+    public void setSaving(boolean saving) {
+        this.saving = saving;
+    }
+
+    /**
+     * When the document was last activated (a counter that increases with
+     * every activation).
+     */
+    public long getLastUsed() {
+        return lastUsed;
+    }
+
+    public void setLastUsed(long lastUsed) {
+        this.lastUsed = lastUsed;
+    }
+
+    /**
+     * The sliding window when the document is in large-file mode, or null.
+     */
+    public LargeFile getLargeFile() {
+        return large;
+    }
+
+    public boolean isModified() {
+        return buffer != null && buffer.getModified();
+    }
+
+    /**
+     * The filename, or "Unnamed" for a new document.
+     */
+    public String getName() {
+        return file == null ? "Unnamed" : file.getBasename();
+    }
+
+    /**
+     * The name with a "modified" indicator.
+     */
+    public String getTitle() {
+        return (isModified() ? "• " : "") + getName();
+    }
+
+    /**
+     * Create an empty buffer. Call {@link #load(Loaded)} to load the file
+     * into the buffer.
+     */
+    public Buffer createBuffer() {
+        buffer = new Buffer((TextTagTable) null);
+
+        // Record all edits in the journal. The signal handlers run before the
+        // buffer is changed, so the iterators point to the original positions.
+        buffer.onInsertText((location, text, _) -> {
+            if (journal != null && journaling)
+                journal.insert(location.getOffset(), text);
+        });
+        buffer.onDeleteRange((start, end) -> {
+            if (journal != null && journaling)
+                journal.delete(start.getOffset(), end.getOffset() - start.getOffset());
+        });
+        return buffer;
+    }
+
+    /**
+     * Load the contents of the file into the buffer in the background.
+     *
+     * @param loaded called when the file has been loaded
+     */
+    public void load(Loaded loaded) {
+        if (file == null) {
+            state = State.LOADED;
+            loaded.finished(null);
+            return;
+        }
+
+        state = State.LOADING;
+        var target = buffer;
+        if (isLarge()) {
+            loadLarge(loaded);
+            return;
+        }
+
+        file.loadContentsAsync(null, (_, result, _) -> {
+            // The buffer was dropped while loading
+            if (buffer != target)
+                return;
+
+            state = State.LOADED;
+            try {
+                // The byte[] parameter is an out-parameter in the C API.
+                // Create an empty Out<byte[]> object, and read its value afterward.
+                Out<byte[]> contents = new Out<>();
+                file.loadContentsFinish(result, contents, null);
+                journaling = false;
+                buffer.beginIrreversibleAction();
+                buffer.setText(new String(contents.get(), StandardCharsets.UTF_8), -1);
+                buffer.endIrreversibleAction();
+                journaling = true;
+                buffer.setModified(false);
+                loaded.finished(null);
+            } catch (GErrorException e) {
+                loaded.finished(e);
+            }
+        });
+    }
+
+    private boolean isLarge() {
+        try {
+            return file.getPath() != null && Files.size(Path.of(file.getPath())) >= LARGE_FILE;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    // Map the file and count its lines on a background thread, and then show
+    // the first lines in the buffer.
+    private void loadLarge(Loaded loaded) {
+        var target = buffer;
+        var path = Path.of(file.getPath());
+        Thread.ofVirtual().name("PieceTable").start(() -> {
+            PieceTable pieces;
+            try {
+                pieces = PieceTable.open(path);
+            } catch (IOException e) {
+                GLib.idleAdd(GLib.PRIORITY_DEFAULT_IDLE, () -> {
+                    if (buffer == target) {
+                        state = State.LOADED;
+                        loaded.finished(e);
+                    }
+                    return false;
+                });
+                return;
+            }
+
+            GLib.idleAdd(GLib.PRIORITY_DEFAULT_IDLE, () -> {
+                // The buffer was dropped while loading
+                if (buffer != target) {
+                    pieces.close();
+                    return false;
+                }
+                state = State.LOADED;
+                large = new LargeFile(pieces, buffer);
+                large.show(0);
+                loaded.finished(null);
+                return false;
+            });
+        });
+    }
+
+    /**
+     * Drop the buffer and delete the journal. Unsaved changes are lost.
+     */
+    public void unload() {
+        closeJournal();
+        if (large != null) {
+            large.close();
+            large = null;
+        }
+        buffer = null;
+        state = State.UNLOADED;
+    }
+
+    /**
+     * Start a new journal. The previous journal is deleted, because its
+     * changes have been saved or discarded.
+     * <p>
+     * When there are changes to recover, no journal is started, and the
+     * existing journal is kept. Call {@link #recover(List)} or
+     * {@code startJournal(false)} when the user has decided what to do with
+     * the changes.
+     *
+     * @param recover whether to read the changes from an existing journal
+     * @return the changes that can be recovered
+     * @throws IOException when the journal cannot be created
+     */
+    public List<EditJournal.Edit> startJournal(boolean recover) throws IOException {
+        closeJournal();
+
+        // The edits in a large file are not journaled, because the buffer
+        // only contains a part of the file.
+        Path path = EditJournal.pathFor(file, unnamed);
+        if (path == null || large != null)
+            return List.of();
+
+        var base = journalBase();
+        var edits = recover ? EditJournal.read(path, base) : List.<EditJournal.Edit>of();
+        if (edits.isEmpty())
+            journal = new EditJournal(path, base);
+        return edits;
+    }
+
+    /**
+     * Apply the changes from the existing journal to the buffer, and start a
+     * new journal that contains them. The existing journal is only replaced
+     * after the new journal has been written.
+     *
+     * @param edits the changes returned by {@link #startJournal(boolean)}
+     * @throws IOException when the journal cannot be created
+     */
+    public void recover(List<EditJournal.Edit> edits) throws IOException {
+        closeJournal();
+        journaling = false;
+        EditJournal.apply(edits, buffer);
+        journaling = true;
+        buffer.setModified(true);
+        journal = new EditJournal(EditJournal.pathFor(file, unnamed), journalBase(), edits);
+    }
+
+    private EditJournal.Base journalBase() throws IOException {
+        return file == null ? EditJournal.Base.EMPTY : EditJournal.Base.of(Path.of(file.getPath()));
+    }
+
+    private void closeJournal() {
+        if (journal != null) {
+            journal.close(true);
+            journal = null;
+        }
+    }
+}
@@ -0,0 +1,362 @@
+package io.github.jwharm.javagi.examples.codeeditor;
+
+import org.gnome.gio.File;
+import org.gnome.glib.GLib;
+import org.gnome.gtk.TextBuffer;
+import org.gnome.gtk.TextIter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only journal of the edits in a text buffer, to recover unsaved
+ * changes after a crash.
+ * <p>
+ * The journal starts with a header that identifies the saved file that the
+ * edits apply to (its size and modification time). Every edit is appended as
+ * a small record with a CRC32 checksum, so the cost of an edit is proportional
+ * to the size of the edit, not to the size of the document. Edits are queued
+ * on the main thread, and written once per second by a background thread that
+ * is shared by all journals. Consecutive edits (typing, or pressing backspace)
+ * are merged into one record. After writing, the journal is synced to disk.
+ * <p>
+ * When the journal is read back, it stops at the first incomplete or corrupt
+ * record, so a record that was only partially written before a crash is
+ * ignored.
+ */
+public final class EditJournal implements AutoCloseable {
+
+    /**
+     * An edit in the buffer. Offsets and lengths are counted in characters.
+     */
+    public sealed interface Edit {}
+
+    /**
+     * Text was inserted at the offset.
+     */
+    public record Insert(int offset, String text, int length) implements Edit {}
+
+    /**
+     * The characters in the range [offset, offset + length) were deleted.
+     */
+    public record Delete(int offset, int length) implements Edit {}
+
+    /**
+     * Identifies the contents of a saved file that the journal applies to.
+     */
+    public record Base(long size, long modified) {
+
+        /**
+         * The base for a buffer that was not saved yet.
+         */
+        public static final Base EMPTY = new Base(-1, -1);
+
+        /**
+         * Get the base for a saved file.
+         */
+        public static Base of(Path path) throws IOException {
+            return new Base(Files.size(path), Files.getLastModifiedTime(path).toMillis());
+        }
+    }
+
+    private static final int MAGIC = 0x434A524E; // "CJRN"
+    private static final int HEADER_SIZE = 4 + 8 + 8;
+    private static final byte INSERT = 'I';
+    private static final byte DELETE = 'D';
+
+    private static final ScheduledExecutorService WRITER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        var thread = new Thread(runnable, "EditJournal");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Path path;
+    private final FileChannel channel;
+    private final ConcurrentLinkedQueue<Edit> queue = new ConcurrentLinkedQueue<>();
+    private final CRC32 crc = new CRC32();
+    private final ScheduledFuture<?> task;
+
+    /**
+     * Create a new, empty journal. An existing journal at the same location is
+     * replaced, so it should be read with {@link #read(Path, Base)} first.
+     *
+     * @param path the journal file
+     * @param base the saved file that the edits will apply to
+     * @throws IOException when the journal cannot be created
+     */
+    public EditJournal(Path path, Base base) throws IOException {
+        this(path, base, List.of());
+    }
+
+    /**
+     * Create a new journal that starts with the given edits. The new journal
+     * is written next to an existing journal at the same location, and only
+     * replaces it when it has been synced to disk, so the edits in the
+     * existing journal are never lost.
+     *
+     * @param path  the journal file
+     * @param base  the saved file that the edits will apply to
+     * @param edits the edits to write into the new journal
+     * @throws IOException when the journal cannot be created
+     */
+    public EditJournal(Path path, Base base, List<Edit> edits) throws IOException {
+        this.path = path;
+        Files.createDirectories(path.getParent());
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        try {
+            var header = ByteBuffer.allocate(HEADER_SIZE)
+                    .putInt(MAGIC)
+                    .putLong(base.size())
+                    .putLong(base.modified())
+                    .flip();
+            write(header);
+            write(encode(edits));
+            channel.force(false);
+
+            // The open channel keeps writing to the file after it is moved
+            Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            channel.close();
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        task = WRITER.scheduleWithFixedDelay(this::flush, 1, 1, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Get the location of the journal for a file.
+     *
+     * @param file    the file, or null for a buffer that was not saved yet
+     * @param unnamed the number of the unsaved buffer, when file is null
+     * @return the location of the journal, or null when the file is not a
+     *         local file
+     */
+    public static Path pathFor(File file, int unnamed) {
+        var dir = Path.of(GLib.getUserCacheDir(), "java-gi-codeeditor");
+        if (file == null)
+            return dir.resolve("unnamed-" + unnamed + ".journal");
+        String filename = file.getPath();
+        if (filename == null)
+            return null;
+        String id = UUID.nameUUIDFromBytes(filename.getBytes(StandardCharsets.UTF_8)).toString();
+        return dir.resolve(id + ".journal");
+    }
+
+    /**
+     * Record that text was inserted. Called on the main thread.
+     */
+    public void insert(int offset, String text) {
+        queue.add(new Insert(offset, text, text.codePointCount(0, text.length())));
+    }
+
+    /**
+     * Record that text was deleted. Called on the main thread.
+     */
+    public void delete(int offset, int length) {
+        queue.add(new Delete(offset, length));
+    }
+
+    // Runs on the writer thread, and when the journal is closed
+    private synchronized void flush() {
+        List<Edit> edits = new ArrayList<>();
+        for (Edit edit; (edit = queue.poll()) != null; )
+            merge(edits, edit);
+        if (edits.isEmpty())
+            return;
+
+        try {
+            write(encode(edits));
+            channel.force(false);
+        } catch (IOException e) {
+            System.err.printf("Cannot write journal %s: %s%n", path, e.getMessage());
+        }
+    }
+
+    // Encode all records, so they can be written at once
+    private ByteBuffer encode(List<Edit> edits) {
+        List<byte[]> texts = new ArrayList<>(edits.size());
+        int size = 0;
+        for (var edit : edits) {
+            byte[] text = edit instanceof Insert insert
+                    ? insert.text().getBytes(StandardCharsets.UTF_8)
+                    : new byte[0];
+            texts.add(text);
+            size += 1 + 4 + 4 + text.length + 4;
+        }
+        var records = ByteBuffer.allocate(size);
+        for (int i = 0; i < edits.size(); i++) {
+            int start = records.position();
+            switch (edits.get(i)) {
+                case Insert insert -> records.put(INSERT).putInt(insert.offset())
+                        .putInt(texts.get(i).length).put(texts.get(i));
+                case Delete delete -> records.put(DELETE).putInt(delete.offset())
+                        .putInt(delete.length());
+            }
+            crc.reset();
+            crc.update(records.array(), start, records.position() - start);
+            records.putInt((int) crc.getValue());
+        }
+        return records.flip();
+    }
+
+    private void write(ByteBuffer data) throws IOException {
+        while (data.hasRemaining())
+            channel.write(data);
+    }
+
+    // Add an edit to the list, or merge it with the previous edit
+    private static void merge(List<Edit> edits, Edit edit) {
+        if (!edits.isEmpty()) {
+            int last = edits.size() - 1;
+            switch (edits.get(last)) {
+                // Typing: the text is inserted directly after the previous text
+                case Insert prev when edit instanceof Insert next
+                        && next.offset() == prev.offset() + prev.length() -> {
+                    edits.set(last, new Insert(prev.offset(), prev.text() + next.text(),
+                            prev.length() + next.length()));
+                    return;
+                }
+                // Backspace: the deleted range ends where the previous one started
+                case Delete prev when edit instanceof Delete next
+                        && next.offset() + next.length() == prev.offset() -> {
+                    edits.set(last, new Delete(next.offset(), prev.length() + next.length()));
+                    return;
+                }
+                // Delete: the deleted range starts at the same offset
+                case Delete prev when edit instanceof Delete next
+                        && next.offset() == prev.offset() -> {
+                    edits.set(last, new Delete(prev.offset(), prev.length() + next.length()));
+                    return;
+                }
+                default -> {}
+            }
+        }
+        edits.add(edit);
+    }
+
+    /**
+     * Read the edits from a journal.
+     *
+     * @param path the journal file
+     * @param base the saved file that the edits should apply to
+     * @return the edits, or an empty list when there is no journal, or the
+     *         journal belongs to another version of the file
+     */
+    public static List<Edit> read(Path path, Base base) {
+        List<Edit> edits = new ArrayList<>();
+        ByteBuffer data;
+        try {
+            if (path == null || !Files.exists(path))
+                return edits;
+            data = ByteBuffer.wrap(Files.readAllBytes(path));
+        } catch (IOException e) {
+            System.err.printf("Cannot read journal %s: %s%n", path, e.getMessage());
+            return edits;
+        }
+
+        if (data.remaining() < HEADER_SIZE
+                || data.getInt() != MAGIC
+                || data.getLong() != base.size()
+                || data.getLong() != base.modified())
+            return edits;
+
+        var crc = new CRC32();
+        while (data.remaining() >= 1 + 4 + 4 + 4) {
+            int start = data.position();
+            byte type = data.get();
+            int offset = data.getInt();
+            int length = data.getInt();
+            String text = null;
+            if (type == INSERT) {
+                if (length < 0 || data.remaining() < length + 4)
+                    break;
+                text = new String(data.array(), data.position(), length, StandardCharsets.UTF_8);
+                data.position(data.position() + length);
+            }
+            crc.reset();
+            crc.update(data.array(), start, data.position() - start);
+            if (data.getInt() != (int) crc.getValue())
+                break;
+
+            if (type == INSERT)
+                edits.add(new Insert(offset, text, text.codePointCount(0, text.length())));
+            else if (type == DELETE)
+                edits.add(new Delete(offset, length));
+            else
+                break;
+        }
+        return edits;
+    }
+
+    /**
+     * Apply edits to a buffer. Edits that don't fit in the buffer are skipped.
+     *
+     * @param edits  the edits to apply
+     * @param buffer the buffer to change
+     */
+    public static void apply(List<Edit> edits, TextBuffer buffer) {
+        var start = new TextIter();
+        var end = new TextIter();
+        for (var edit : edits) {
+            int size = buffer.getCharCount();
+            switch (edit) {
+                case Insert insert when insert.offset() >= 0 && insert.offset() <= size -> {
+                    buffer.getIterAtOffset(start, insert.offset());
+                    buffer.insert(start, insert.text(), -1);
+                }
+                case Delete delete when delete.offset() >= 0 && delete.offset() + delete.length() <= size -> {
+                    buffer.getIterAtOffset(start, delete.offset());
+                    buffer.getIterAtOffset(end, delete.offset() + delete.length());
+                    buffer.delete(start, end);
+                }
+                default -> System.err.printf("Skipped journal entry %s%n", edit);
+            }
+        }
+    }
+
+    /**
+     * Write the remaining edits and close the journal.
+     *
+     * @param delete whether to delete the journal file, because its edits
+     *               have been saved or discarded
+     */
+    public void close(boolean delete) {
+        task.cancel(false);
+        try {
+            synchronized (this) {
+                flush();
+                channel.close();
+            }
+            if (delete)
+                Files.deleteIfExists(path);
+        } catch (IOException e) {
+            System.err.printf("Cannot close journal %s: %s%n", path, e.getMessage());
+        }
+    }
+
+    /**
+     * Write the remaining edits and close the journal. The journal file is
+     * kept, so the edits can be recovered.
+     */
+    @Override
+    public void close() {
+        close(false);
+    }
+}
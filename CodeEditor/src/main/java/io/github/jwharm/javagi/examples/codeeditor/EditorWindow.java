@@ -1,46 +1,114 @@
 package io.github.jwharm.javagi.examples.codeeditor;
 
+import io.github.jwharm.javagi.examples.notepad.AsyncSaver;
 import org.javagi.gobject.annotations.InstanceInit;
 import org.javagi.base.GErrorException;
 import org.javagi.base.Out;
+import org.javagi.gobject.SignalConnection;
 import org.gnome.adw.*;
 import org.gnome.adw.AlertDialog;
 import org.gnome.adw.Application;
 import org.gnome.adw.ApplicationWindow;
 import org.gnome.adw.HeaderBar;
 import org.gnome.gio.File;
-import org.gnome.gio.FileCreateFlags;
+import org.gnome.gio.Cancellable;
+import org.gnome.glib.GLib;
 import org.gnome.gtk.*;
-import org.gnome.gtksourceview.LanguageManager;
+import org.gnome.gtksourceview.Buffer;
 import org.gnome.gtksourceview.View;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Consumer;
+
+import static io.github.jwharm.javagi.examples.codeeditor.CodeEditor.LOG_DOMAIN;
+import static org.gnome.glib.LogLevelFlags.LEVEL_MESSAGE;
+
 /**
- * The EditorWindow class contains a headerbar and the sourceview. The headerbar
- * contains buttons for new/open/save actions.
+ * The EditorWindow class contains a headerbar, a tab for every open file, and
+ * the sourceview. The headerbar contains buttons for new/open/save actions.
+ * <p>
+ * There is only one sourceview. It is moved to the selected tab, and shows the
+ * buffer of the document in that tab. A buffer is created when its tab is
+ * selected for the first time. To limit the memory usage, the buffers of the
+ * least recently used documents are dropped when they are not modified.
+ * <p>
+ * Large files only show a window of lines in the sourceview. The window moves
+ * when the sourceview is scrolled near its top or bottom, and an extra
+ * scrollbar shows (and changes) the position of the window in the file.
  */
 public class EditorWindow extends ApplicationWindow {
 
-    // The currently open file (or null when no file is open)
-    private File file = null;
+    // The tabs
+    private TabView tabView;
+
+    // The document in every tab
+    private Map<TabPage, Document> documents;
 
-    // The sourceview component
+    // The sourceview component, the scrolled window that contains it, and
+    // the box with the scrolled window and the scrollbar for large files
     private View sourceview;
+    private ScrolledWindow scrolledWindow;
+    private Box editor;
+
+    // The position of the window in a large file
+    private Scrollbar lineScrollbar;
+
+    // True while the window in a large file is moved
+    private boolean moving = false;
 
     // A banner to show error messages
     private Banner banner;
 
+    // The maximum number of documents with a buffer
+    private int maxBuffers;
+
+    // Counts the activations of the tabs, to find the least recently used ones
+    private long activations = 0;
+
+    // Counts the new documents, to give each one its own journal
+    private int unnamedCount = 0;
+
+    // True while the tabs are closed before closing the window
+    private boolean closingWindow = false;
+
+    // Caches the source code languages
+    private final LanguageCache languages = new LanguageCache();
+
     // Constructor for a new EditorWindow
     public EditorWindow(Application application) {
         setApplication(application);
+        documents = new HashMap<>();
+        maxBuffers = Integer.getInteger("codeeditor.buffers", 16);
         present();
 
+        // Follow the light or dark style of the desktop.
+        StyleManager.getDefault().onNotify("dark", _ -> documents.values().stream()
+                .map(Document::getBuffer)
+                .filter(Objects::nonNull)
+                .forEach(this::applyStyleScheme));
+
+        // Start with a new document. This offers to recover unsaved changes
+        // from a previous session.
+        newDocument();
+
+        // Load the definitions of common languages in the background.
+        String warmUp = System.getProperty("codeeditor.warmup", "java,c,cpp,python,js,xml,json,sh,markdown");
+        if (!warmUp.isBlank())
+            languages.warmUp(List.of(warmUp.split(",")));
+
         // Make sure the text field has the keyboard focus.
         sourceview.grabFocus();
     }
 
     /**
      * The @InstanceInit method is called during construction of a new EditorWindow instance.
-     * It creates the window layout (the headerbar, buttons, and sourceview).
+     * It creates the window layout (the headerbar, buttons, tabs and sourceview).
      */
     @InstanceInit
     public void init() {
@@ -56,6 +124,26 @@ public class EditorWindow extends ApplicationWindow {
                 .build();
         box.append(banner);
 
+        // Create the tabs
+        tabView = TabView.builder()
+                .setVexpand(true)
+                .build();
+        var tabBar = TabBar.builder()
+                .setView(tabView)
+                .setAutohide(false)
+                .build();
+        box.append(tabBar);
+        box.append(tabView);
+
+        // Show the document of the selected tab.
+        tabView.onNotify("selected-page", _ -> activateDocument());
+
+        // Ask to save changes before closing a tab.
+        tabView.onClosePage(page -> {
+            closeDocument(page);
+            return true;
+        });
+
         // Create the GtkSourceView, with some sensible features enabled.
         sourceview = View.builder()
                 .setMonospace(true)
@@ -64,40 +152,65 @@ public class EditorWindow extends ApplicationWindow {
                 .setAutoIndent(true)
                 .build();
 
-        // The window title contains a "modified" indicator, that is
-        // updated by the "on-modified-change" signal of the text buffer.
-        sourceview.getBuffer().onModifiedChanged(this::updateWindowTitle);
-
         // The textView should be scrollable.
-        var scrolledWindow = ScrolledWindow.builder()
+        scrolledWindow = ScrolledWindow.builder()
                 .setChild(sourceview)
                 .setVexpand(true)
+                .setHexpand(true)
                 .build();
-        box.append(scrolledWindow);
+
+        // Move the window in a large file when scrolling near the edges.
+        scrolledWindow.getVadjustment().onValueChanged(this::followScroll);
+        scrolledWindow.getHadjustment().onValueChanged(this::followHorizontalScroll);
+
+        // The scrollbar for large files is only visible for large files.
+        lineScrollbar = new Scrollbar(Orientation.VERTICAL, new Adjustment(0, 0, 1, 1, 1, 1));
+        lineScrollbar.setVisible(false);
+        lineScrollbar.getAdjustment().onValueChanged(() -> {
+            var large = largeFile();
+            if (large != null && !moving)
+                moveWindow(large, (long) lineScrollbar.getAdjustment().getValue(), -1);
+        });
+
+        editor = new Box(Orientation.HORIZONTAL, 0);
+        editor.append(scrolledWindow);
+        editor.append(lineScrollbar);
 
         // Create buttons for 'new', 'open' and 'save' actions.
         var newButton = Button.fromIconName("document-new-symbolic");
-        newButton.onClicked(() -> whenSure(this::clear));
+        newButton.onClicked(this::newDocument);
         header.packStart(newButton);
 
         var openButton = Button.fromIconName("document-open-symbolic");
-        openButton.onClicked(() -> whenSure(this::open));
+        openButton.onClicked(this::open);
         header.packStart(openButton);
 
         var saveButton = Button.fromIconName("document-save-symbolic");
         saveButton.onClicked(this::save);
         header.packStart(saveButton);
 
-        // Ask to save changes before closing the window.
+        // Close all tabs (asking to save changes) before closing the window.
         this.onCloseRequest(() -> {
-            whenSure(this::destroy);
+            closingWindow = true;
+            closeNextPage();
             return true;
         });
 
         setContent(box);
+    }
 
-        // Show the results.
-        updateWindowTitle();
+    // The document in the selected tab
+    private Document current() {
+        var page = tabView.getSelectedPage();
+        return page == null ? null : documents.get(page);
+    }
+
+    // The tab that contains the document
+    private TabPage pageOf(Document document) {
+        for (var entry : documents.entrySet())
+            if (entry.getValue() == document)
+                return entry.getKey();
+        return null;
     }
 
     /**
@@ -105,43 +218,310 @@ public class EditorWindow extends ApplicationWindow {
      * When no file is open, the title is "Unnamed".
      */
     private void updateWindowTitle() {
-        super.setTitle(
-                (sourceview.getBuffer().getModified() ? ("• ") : "") +
-                (file == null ? "Unnamed" : file.getBasename())
-        );
+        var document = current();
+        super.setTitle(document == null ? "Unnamed" : document.getTitle());
+    }
+
+    // Updates the title of the tab, and of the window if the tab is selected
+    private void updateTitle(Document document) {
+        var page = pageOf(document);
+        if (page != null)
+            page.setTitle(document.getTitle());
+        if (document == current())
+            updateWindowTitle();
+    }
+
+    // The document can only be edited when it is loaded, and not being saved
+    private void updateEditable() {
+        var document = current();
+        sourceview.setEditable(document != null
+                && document.getState() == Document.State.LOADED
+                && !document.isSaving());
     }
 
     // Set source code language
-    private void detectLanguage() {
-        var buffer = (org.gnome.gtksourceview.Buffer) sourceview.getBuffer();
-        buffer.setLanguage(file == null ? null
-                : LanguageManager.getDefault().guessLanguage(file.getBasename(), null));
+    private void detectLanguage(Document document) {
+        if (document.getBuffer() != null)
+            document.getBuffer().setLanguage(languages.guess(document.getFile()));
+    }
+
+    // Set the cached style scheme that matches the light or dark style
+    private void applyStyleScheme(Buffer buffer) {
+        boolean dark = StyleManager.getDefault().getDark();
+        buffer.setStyleScheme(languages.scheme(dark ? "Adwaita-dark" : "Adwaita"));
+    }
+
+    /**
+     * Turn off syntax highlighting until the first frame with the new
+     * contents has been drawn, so the text is shown as soon as possible.
+     * Then GtkSourceView highlights the visible part of the buffer first, and
+     * the rest in the background. The time until the first frame, and until
+     * the first "highlight-updated" signal of the buffer, is logged. Empty
+     * buffers and buffers without a language are not measured.
+     *
+     * @param buffer the buffer that was loaded
+     * @param start  the time when loading started ({@link System#nanoTime()})
+     */
+    private void deferHighlighting(Buffer buffer, long start) {
+        if (buffer.getCharCount() == 0 || buffer.getLanguage() == null)
+            return;
+        buffer.setHighlightSyntax(false);
+
+        // The tick callback runs before a frame is drawn, so when it runs
+        // again, the previous frame has been drawn.
+        int[] frames = {0};
+        sourceview.addTickCallback((_, _) -> {
+            if (++frames[0] < 2)
+                return true;
+            GLib.log(LOG_DOMAIN, LEVEL_MESSAGE, "First frame after %d ms\n",
+                    (int) ((System.nanoTime() - start) / 1_000_000));
+
+            // GtkSourceView emits "highlight-updated" when it has highlighted
+            // a region of the buffer; the visible region is highlighted first.
+            SignalConnection<?>[] connection = {null};
+            connection[0] = buffer.onHighlightUpdated((_, _) -> {
+                GLib.log(LOG_DOMAIN, LEVEL_MESSAGE, "First highlighted region after %d ms\n",
+                        (int) ((System.nanoTime() - start) / 1_000_000));
+                connection[0].disconnect();
+            });
+            buffer.setHighlightSyntax(true);
+            return false;
+        });
+    }
+
+    // The large file in the selected tab, or null
+    private LargeFile largeFile() {
+        var document = current();
+        return document == null ? null : document.getLargeFile();
+    }
+
+    // Show the position of the window in a large file
+    private void updateLineScrollbar() {
+        var large = largeFile();
+        lineScrollbar.setVisible(large != null);
+        if (large == null)
+            return;
+
+        moving = true;
+        lineScrollbar.getAdjustment().configure(large.getFirstLine(), 0, large.getLineCount(),
+                1, large.getWindowLines(), large.getWindowLines());
+        moving = false;
+    }
+
+    /**
+     * When a large file is scrolled near the top or bottom of the window,
+     * move the window so the visible lines are in the middle.
+     */
+    private void followScroll() {
+        var large = largeFile();
+        if (large == null || moving)
+            return;
+
+        var adjustment = scrolledWindow.getVadjustment();
+        double value = adjustment.getValue();
+        double max = adjustment.getUpper() - adjustment.getPageSize();
+        if (max <= 0)
+            return;
+
+        boolean up = value < max * 0.1 && large.getFirstLine() > 0;
+        boolean down = value > max * 0.9
+                && large.getFirstLine() + large.getWindowLines() < large.getLineCount();
+        if (!up && !down)
+            return;
+
+        // The first visible line
+        var iter = new TextIter();
+        sourceview.getLineAtY(iter, (int) value, new Out<>());
+        long top = large.getFirstLine() + iter.getLine();
+        moveWindow(large, top - large.getWindowLines() / 2, top);
+    }
+
+    /**
+     * When a long line in a large file is scrolled near the left or right
+     * edge of the window, move the window half a window along the line.
+     */
+    private void followHorizontalScroll() {
+        var large = largeFile();
+        if (large == null || moving || !large.isLineCut())
+            return;
+
+        var adjustment = scrolledWindow.getHadjustment();
+        double value = adjustment.getValue();
+        double max = adjustment.getUpper() - adjustment.getPageSize();
+        if (max <= 0)
+            return;
+
+        int direction = value > max * 0.9 && large.canPageRight() ? 1
+                : value < max * 0.1 && large.canPageLeft() ? -1
+                : 0;
+        if (direction == 0)
+            return;
+
+        // Keep the same text in view: it has moved half a window
+        moving = true;
+        large.page(direction);
+        adjustment.setValue(value - direction * max / 2);
+        moving = false;
+    }
+
+    /**
+     * Move the window in a large file.
+     *
+     * @param large the large file
+     * @param first the first line of the new window
+     * @param top   the line to scroll to the top of the view, or -1 to
+     *              scroll to the start of the window
+     */
+    private void moveWindow(LargeFile large, long first, long top) {
+        moving = true;
+        large.show(first);
+
+        var buffer = sourceview.getBuffer();
+        var iter = new TextIter();
+        buffer.getIterAtLine(iter, (int) Math.max(0, top - large.getFirstLine()));
+        buffer.placeCursor(iter);
+        var mark = buffer.getMark("window-top");
+        if (mark == null)
+            mark = buffer.createMark("window-top", iter, true);
+        else
+            buffer.moveMark(mark, iter);
+        sourceview.scrollToMark(mark, 0, true, 0, 0);
+        moving = false;
+        updateLineScrollbar();
+    }
+
+    /**
+     * Add a tab for a document.
+     *
+     * @param document the document
+     * @param select   whether to select the new tab
+     * @return the new tab
+     */
+    private TabPage addDocument(Document document, boolean select) {
+        var page = tabView.append(new Bin());
+        page.setTitle(document.getTitle());
+        documents.put(page, document);
+        if (select) {
+            tabView.setSelectedPage(page);
+            activateDocument();
+        }
+        return page;
+    }
+
+    /**
+     * Show the document of the selected tab in the sourceview. When the
+     * document doesn't have a buffer yet, it is created and the file is loaded
+     * in the background.
+     */
+    private void activateDocument() {
+        var page = tabView.getSelectedPage();
+        var document = page == null ? null : documents.get(page);
+        if (document == null)
+            return;
+
+        // Move the sourceview into the selected tab.
+        var bin = (Bin) page.getChild();
+        if (!bin.equals(editor.getParent())) {
+            if (editor.getParent() instanceof Bin previous)
+                previous.setChild(null);
+            bin.setChild(editor);
+        }
+
+        document.setLastUsed(++activations);
+        boolean created = document.getBuffer() == null;
+        if (created) {
+            var buffer = document.createBuffer();
+            buffer.onModifiedChanged(() -> updateTitle(document));
+            applyStyleScheme(buffer);
+        }
+        sourceview.setBuffer(document.getBuffer());
+        updateEditable();
+        updateLineScrollbar();
+        updateWindowTitle();
+        sourceview.grabFocus();
+
+        if (created)
+            load(document);
+        dropBuffers();
+    }
+
+    /**
+     * Load the file of a document in the background.
+     */
+    private void load(Document document) {
+        var buffer = document.getBuffer();
+        var page = pageOf(document);
+        page.setLoading(true);
+        long start = System.nanoTime();
+
+        document.load(error -> {
+            page.setLoading(false);
+            if (error != null) {
+                banner.setTitle("Error reading from file: " + error.getMessage());
+                banner.setRevealed(true);
+            } else {
+                detectLanguage(document);
+                if (document == current())
+                    deferHighlighting(buffer, start);
+                startJournal(document, true);
+            }
+            updateEditable();
+            updateLineScrollbar();
+        });
     }
 
     /**
-     * Runs {@code action} but, if the buffer is modified, asks to save
+     * Drop the buffers of the least recently used documents that are not
+     * modified, when there are more than the maximum number of buffers.
+     */
+    private void dropBuffers() {
+        var current = current();
+        long buffers = documents.values().stream()
+                .filter(document -> document.getBuffer() != null)
+                .count();
+        if (buffers <= maxBuffers)
+            return;
+
+        var idle = documents.values().stream()
+                .filter(document -> document != current
+                        && document.getState() == Document.State.LOADED
+                        && !document.isModified()
+                        && !document.isSaving())
+                .sorted(Comparator.comparingLong(Document::getLastUsed))
+                .toList();
+        for (var document : idle) {
+            if (buffers-- <= maxBuffers)
+                break;
+            document.unload();
+        }
+    }
+
+    /**
+     * Runs {@code action} but, if the document is modified, asks to save
      * the modifications first.
      *
-     * @param action the action to run after saving the modifications
+     * @param document  the document that will be closed by the action
+     * @param action    the action to run after saving the modifications
+     * @param cancelled the action to run when the user cancels
      */
-    private void whenSure(Runnable action) {
+    private void whenSure(Document document, Runnable action, Runnable cancelled) {
         // No modifications?
-        if (! sourceview.getBuffer().getModified()) {
+        if (! document.isModified()) {
             action.run();
-            sourceview.grabFocus();
             return;
         }
 
-        var dialog = new AlertDialog("Save changes?", "Do you want to save your changes?");
+        var dialog = new AlertDialog("Save changes?", "Do you want to save your changes to " + document.getName() + "?");
         dialog.addResponses("cancel", "Cancel", "discard", "Discard", "save", "Save", null);
         dialog.setResponseAppearance("save", ResponseAppearance.SUGGESTED);
         dialog.setResponseAppearance("discard", ResponseAppearance.DESTRUCTIVE);
         dialog.setDefaultResponse("cancel");
         dialog.setCloseResponse("cancel");
         dialog.onResponse(null, response -> {
-            if (!response.equals("cancel")) {
-                if (response.equals("save")) save();
-                action.run();
+            switch (response) {
+                case "save" -> save(document, action, cancelled); // save, and then run the action
+                case "discard" -> action.run();
+                default -> cancelled.run();
             }
             sourceview.grabFocus();
         });
@@ -149,89 +529,228 @@ public class EditorWindow extends ApplicationWindow {
     }
 
     /**
-     * "New" action: clear the editor buffer.
-     * This could also open a new window, instead of cleaning the current buffer.
+     * "New" action: open a new, empty document in a new tab.
      */
-    public void clear() {
-        file = null;
-    	sourceview.getBuffer().setText("", 0);
-        detectLanguage();
-    	sourceview.getBuffer().setModified(false);
-        sourceview.grabFocus();
+    public void newDocument() {
+        addDocument(new Document(null, ++unnamedCount), true);
     }
 
     /**
-     * "Open" action: Load a file and show the contents in the editor.
+     * "Open" action: Open the selected files, each in its own tab. The files
+     * are loaded when their tab is selected.
      */
     public void open() {
         // Set up an Open File dialog.
         var dialog = new FileDialog();
         dialog.openMultiple(this, null, (_, result, _) -> {
+            var previous = tabView.getSelectedPage();
+            long start = System.nanoTime();
+            TabPage first = null;
+            int count = 0;
             try {
                 var files = dialog.openMultipleFinish(result);
-                file = (File) files.getItem(0);
+                for (int i = 0; i < files.getNItems(); i++) {
+                    var file = (File) files.getItem(i);
+                    var page = findPage(file);
+                    if (page == null) {
+                        page = addDocument(new Document(file, 0), false);
+                        count++;
+                    }
+                    if (first == null)
+                        first = page;
+                }
             } catch (GErrorException ignored) {} // used clicked cancel
-            if (file == null) return;
+            if (first == null) return;
 
-            // Load the contents of the selected file.
-            try {
-                // The byte[] parameter is an out-parameter in the C API.
-                // Create an empty Out<byte[]> object, and read its value afterward.
-                Out<byte[]> contents = new Out<>();
-                file.loadContents(null, contents, null);
-                sourceview.getBuffer().setText(new String(contents.get()), contents.get().length);
-                detectLanguage();
-                sourceview.getBuffer().setModified(false);
-                sourceview.grabFocus();
-            } catch (GErrorException e) {
-                banner.setTitle("Error reading from file: " + e.getMessage());
-                banner.setRevealed(true);
-            }
+            GLib.log(LOG_DOMAIN, LEVEL_MESSAGE, "Opened %d files in %d ms\n",
+                    count, (int) ((System.nanoTime() - start) / 1_000_000));
+            tabView.setSelectedPage(first);
+            activateDocument();
+
+            // Replace the empty document that was shown before
+            var document = previous == null ? null : documents.get(previous);
+            if (document != null && document.getFile() == null && !document.isModified()
+                    && document.getBuffer() != null && document.getBuffer().getCharCount() == 0)
+                tabView.closePage(previous);
         });
     }
 
+    // Find the tab that contains a file
+    private TabPage findPage(File file) {
+        for (var entry : documents.entrySet()) {
+            var other = entry.getValue().getFile();
+            if (other != null && other.equal(file))
+                return entry.getKey();
+        }
+        return null;
+    }
+
     /**
-     * "Save" action: Show a file dialog (for new files) and call {@link #write()}
+     * Close a tab, after asking to save the changes.
+     */
+    private void closeDocument(TabPage page) {
+        var document = documents.get(page);
+        whenSure(document, () -> {
+            // Take the sourceview out of the tab before it is destroyed.
+            if (page.getChild() instanceof Bin bin && bin.equals(editor.getParent()))
+                bin.setChild(null);
+
+            documents.remove(page);
+            document.unload();
+            tabView.closePageFinish(page, true);
+
+            if (closingWindow)
+                closeNextPage();
+            else if (tabView.getNPages() == 0)
+                newDocument();
+        }, () -> {
+            tabView.closePageFinish(page, false);
+            closingWindow = false;
+        });
+    }
+
+    // Close the tabs one by one, and then the window
+    private void closeNextPage() {
+        if (tabView.getNPages() == 0) {
+            destroy();
+            return;
+        }
+        var page = tabView.getNthPage(0);
+        tabView.setSelectedPage(page);
+        tabView.closePage(page);
+    }
+
+    /**
+     * "Save" action: Show a file dialog (for new files) and call {@link #write}
      */
     public void save() {
-        if (file == null) {
+        var document = current();
+        if (document != null)
+            save(document, () -> {}, () -> {});
+    }
+
+    /**
+     * Save the document, and run {@code after} when the file was saved successfully.
+     *
+     * @param document  the document to save
+     * @param after     the action to run after saving
+     * @param cancelled the action to run when the document was not saved
+     */
+    private void save(Document document, Runnable after, Runnable cancelled) {
+        if (document.getFile() == null) {
             // Set up a Save File dialog.
             var dialog = new FileDialog();
             dialog.save(this, null, (_, result, _) -> {
                 try {
-                    file = dialog.saveFinish(result);
-                    if (file == null) return;
+                    var file = dialog.saveFinish(result);
+                    if (file == null) {
+                        cancelled.run();
+                        return;
+                    }
+                    document.setFile(file);
+                    updateTitle(document);
+                    detectLanguage(document);
 
                     // Write the sourceview buffer contents to the selected file.
-                    write();
-                    detectLanguage();
-                    sourceview.getBuffer().setModified(false);
-                    sourceview.grabFocus();
-                } catch (GErrorException ignored) {} // used clicked cancel
+                    write(document, after, cancelled);
+                } catch (GErrorException ignored) { // used clicked cancel
+                    cancelled.run();
+                }
             });
         } else {
             // Write the sourceview buffer contents to the file that was already open.
-            write();
-            sourceview.getBuffer().setModified(false);
-            sourceview.grabFocus();
+            write(document, after, cancelled);
         }
     }
 
     /**
-     * Helper function that writes editor contents to a file.
+     * Helper function that writes the contents of a document to a file in the background.
      */
-    private void write() {
-        // Get the contents of the sourceview buffer as a byte array
-        TextIter start = new TextIter();
-        TextIter end = new TextIter();
-        sourceview.getBuffer().getBounds(start, end);
-        byte[] contents = sourceview.getBuffer().getText(start, end, false).getBytes();
+    private void write(Document document, Runnable after, Runnable cancelled) {
+        // Don't save while the file is being loaded or saved
+        if (document.isSaving() || document.getState() != Document.State.LOADED) {
+            cancelled.run();
+            return;
+        }
+
+        // The buffer must not change while it is being saved
+        document.setSaving(true);
+        updateEditable();
+
+        Consumer<Exception> finished = error -> {
+            document.setSaving(false);
+            updateEditable();
+
+            if (error != null) {
+                banner.setTitle("Error writing to file: " + error.getMessage());
+                banner.setRevealed(true);
+                cancelled.run();
+                return;
+            }
+
+            document.getBuffer().setModified(false);
+
+            // The journal now applies to the saved file
+            startJournal(document, false);
+            after.run();
+        };
+
+        // Large files are written from the piece table
+        var large = document.getLargeFile();
+        if (large != null && document.getFile().getPath() != null)
+            large.save(Path.of(document.getFile().getPath()), finished::accept);
+        else
+            new AsyncSaver(document.getFile(), document.getBuffer(), new Cancellable()).save(finished::accept);
+    }
+
+    /**
+     * Start a new journal for a document.
+     *
+     * @param recover whether to offer to recover the changes in an existing
+     *                journal of the document
+     */
+    private void startJournal(Document document, boolean recover) {
         try {
-            // Write the byte array to the file
-            file.replaceContents(contents, "", false, FileCreateFlags.NONE, null, null);
-        } catch (GErrorException e) {
-            banner.setTitle("Error reading from file: " + e.getMessage());
+            var edits = document.startJournal(recover);
+            if (!edits.isEmpty())
+                askRecover(document, edits);
+        } catch (IOException e) {
+            banner.setTitle("Cannot create journal: " + e.getMessage());
             banner.setRevealed(true);
         }
     }
+
+    /**
+     * Ask to recover unsaved changes from a journal.
+     *
+     * @param document the document to recover
+     * @param edits    the unsaved changes
+     */
+    private void askRecover(Document document, List<EditJournal.Edit> edits) {
+        var dialog = new AlertDialog("Recover unsaved changes?",
+                "The editor was closed before your changes to " + document.getName() + " were saved.");
+        dialog.addResponses("discard", "Discard", "recover", "Recover", null);
+        dialog.setResponseAppearance("recover", ResponseAppearance.SUGGESTED);
+        dialog.setResponseAppearance("discard", ResponseAppearance.DESTRUCTIVE);
+        dialog.setDefaultResponse("recover");
+        // Closing the dialog keeps the changes
+        dialog.setCloseResponse("recover");
+        dialog.onResponse(null, response -> {
+            // The document was closed meanwhile
+            if (document.getBuffer() == null)
+                return;
+
+            try {
+                if (response.equals("recover"))
+                    document.recover(edits);
+                else
+                    document.startJournal(false);
+            } catch (IOException e) {
+                banner.setTitle("Cannot create journal: " + e.getMessage());
+                banner.setRevealed(true);
+            }
+            sourceview.grabFocus();
+        });
+        dialog.present(this);
+    }
 }
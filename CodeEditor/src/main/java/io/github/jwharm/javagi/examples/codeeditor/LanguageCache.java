@@ -0,0 +1,102 @@
+package io.github.jwharm.javagi.examples.codeeditor;
+
+import org.gnome.gio.File;
+import org.gnome.glib.GLib;
+import org.gnome.gtk.TextIter;
+import org.gnome.gtksourceview.Buffer;
+import org.gnome.gtksourceview.Language;
+import org.gnome.gtksourceview.LanguageManager;
+import org.gnome.gtksourceview.StyleScheme;
+import org.gnome.gtksourceview.StyleSchemeManager;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static io.github.jwharm.javagi.examples.codeeditor.CodeEditor.LOG_DOMAIN;
+import static org.gnome.glib.LogLevelFlags.LEVEL_MESSAGE;
+
+/**
+ * Caches the source code languages and style schemes, and loads them in
+ * advance.
+ * <p>
+ * The first time a language is used for highlighting, GtkSourceView parses
+ * its language definition file. The warm-up does this for a list of common
+ * languages after the application has started, by highlighting a tiny buffer
+ * for each language. GtkSourceView objects can only be used on the main
+ * thread, so the warm-up runs in the main loop as low-priority idle callbacks,
+ * one language at a time, to keep the application responsive.
+ * <p>
+ * The language that is guessed for a file name is cached, so saving or
+ * reopening a file doesn't guess the language again. The style schemes are
+ * cached as well, and are set on every new buffer.
+ */
+public final class LanguageCache {
+
+    private static final String[] SCHEMES = {"Adwaita", "Adwaita-dark"};
+
+    private final Map<String, Optional<Language>> byName = new HashMap<>();
+    private final Map<String, StyleScheme> schemes = new HashMap<>();
+
+    /**
+     * Start loading the languages and style schemes in the background.
+     *
+     * @param languageIds the ids of the languages to load
+     */
+    public void warmUp(List<String> languageIds) {
+        var pending = new ArrayDeque<>(languageIds);
+        long start = System.nanoTime();
+        GLib.idleAdd(GLib.PRIORITY_LOW, () -> {
+            String id = pending.poll();
+            if (id == null) {
+                for (String name : SCHEMES)
+                    scheme(name);
+                GLib.log(LOG_DOMAIN, LEVEL_MESSAGE, "Loaded %d languages in %d ms\n",
+                        languageIds.size(), (int) ((System.nanoTime() - start) / 1_000_000));
+                return false;
+            }
+
+            var language = LanguageManager.getDefault().getLanguage(id);
+            if (language != null) {
+                // Highlighting a small buffer parses the language definition
+                var buffer = Buffer.withLanguage(language);
+                buffer.setText("warm-up", -1);
+                var begin = new TextIter();
+                var end = new TextIter();
+                buffer.getBounds(begin, end);
+                buffer.ensureHighlight(begin, end);
+            }
+            return true;
+        });
+    }
+
+    /**
+     * Guess the language of a file from its name.
+     *
+     * @param file the file, or null
+     * @return the language, or null when the language is unknown
+     */
+    public Language guess(File file) {
+        if (file == null)
+            return null;
+
+        // The language depends on the whole name (for example "CMakeLists.txt"
+        // and "notes.txt" are different languages), so it is cached by name.
+        String name = file.getBasename();
+        return byName.computeIfAbsent(name, _ ->
+                Optional.ofNullable(LanguageManager.getDefault().guessLanguage(name, null))
+        ).orElse(null);
+    }
+
+    /**
+     * Get a style scheme.
+     *
+     * @param id the id of the style scheme
+     * @return the style scheme, or null when it doesn't exist
+     */
+    public StyleScheme scheme(String id) {
+        return schemes.computeIfAbsent(id, StyleSchemeManager.getDefault()::getScheme);
+    }
+}
@@ -0,0 +1,292 @@
+package io.github.jwharm.javagi.examples.codeeditor;
+
+import org.gnome.glib.GLib;
+import org.gnome.gtk.TextBuffer;
+import org.gnome.gtk.TextIter;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+import static io.github.jwharm.javagi.examples.codeeditor.CodeEditor.LOG_DOMAIN;
+import static org.gnome.glib.LogLevelFlags.LEVEL_MESSAGE;
+
+/**
+ * Edits a large file through a sliding window.
+ * <p>
+ * The document is stored in a {@link PieceTable}. The text buffer only
+ * contains a window of a few thousand lines. When the window is moved, the
+ * changes in the window are first written back into the piece table; only the
+ * part of the window between the first and the last changed byte is replaced.
+ * <p>
+ * The window never contains more than a few megabytes. A line that is longer
+ * than that (like in minified JSON or a log file without newlines) is shown
+ * in parts, that are cut between two UTF-8 sequences. The window is moved
+ * along the line with {@link #page(int)}.
+ * <p>
+ * The file is saved by writing the pieces to a temporary file in the same
+ * directory, which then replaces the original file with an atomic move.
+ */
+public final class LargeFile implements AutoCloseable {
+
+    private static final int WINDOW_LINES = 5000;
+    private static final int WINDOW_BYTES = 4 * 1024 * 1024;
+
+    private final PieceTable pieces;
+    private final TextBuffer buffer;
+
+    // The lines in the window, and the bytes in the piece table that they came from
+    private long firstLine = 0;
+    private long windowLines = 0;
+    private long start = 0;
+    private byte[] shown = new byte[0];
+
+    // The window only contains a part of a long line, starting at this byte of the line
+    private boolean lineCut = false;
+    private long column = 0;
+
+    // The window is being replaced
+    private boolean loading = false;
+
+    // The text in the window was changed
+    private boolean changed = false;
+
+    // The piece table was changed since the file was saved
+    private boolean dirty = false;
+
+    /**
+     * Create a LargeFile.
+     *
+     * @param pieces the contents of the file
+     * @param buffer the buffer that will contain the window
+     */
+    public LargeFile(PieceTable pieces, TextBuffer buffer) {
+        this.pieces = pieces;
+        this.buffer = buffer;
+        buffer.onChanged(() -> {
+            if (!loading)
+                changed = true;
+        });
+    }
+
+    /**
+     * The number of the first line in the window.
+     */
+    public long getFirstLine() {
+        return firstLine;
+    }
+
+    /**
+     * The number of lines in the window.
+     */
+    public long getWindowLines() {
+        return windowLines;
+    }
+
+    /**
+     * The number of lines in the document.
+     */
+    public long getLineCount() {
+        return pieces.lineCount();
+    }
+
+    /**
+     * Whether the window only contains a part of a line that is too long.
+     */
+    public boolean isLineCut() {
+        return lineCut;
+    }
+
+    /**
+     * Whether there is a part of the long line before the window.
+     */
+    public boolean canPageLeft() {
+        return lineCut && column > 0;
+    }
+
+    /**
+     * Whether there is a part of the long line after the window. The bytes
+     * after the window don't change when the text in the window is edited.
+     */
+    public boolean canPageRight() {
+        return lineCut && start + shown.length < pieces.lineStart(firstLine + 1);
+    }
+
+    /**
+     * Move the window, so it starts at the requested line. Changes in the
+     * current window are written back into the piece table first.
+     *
+     * @param line the first line of the new window
+     */
+    public void show(long line) {
+        show(line, 0);
+    }
+
+    /**
+     * Move the window half a window to the left or to the right along a line
+     * that is too long to show at once.
+     *
+     * @param direction -1 to move to the left, 1 to move to the right
+     */
+    public void page(int direction) {
+        if (lineCut)
+            show(firstLine, column + direction * (WINDOW_BYTES / 2));
+    }
+
+    /**
+     * Move the window, so it starts at the requested line. Changes in the
+     * current window are written back into the piece table first. When the
+     * line is too long to show at once, the window starts at the requested
+     * byte of the line.
+     *
+     * @param line   the first line of the new window
+     * @param column the first byte of the line to show, when the line is
+     *               too long
+     */
+    public void show(long line, long column) {
+        commit();
+
+        firstLine = Math.max(0, Math.min(line, pieces.lineCount() - WINDOW_LINES));
+        long lineStart = pieces.lineStart(firstLine);
+
+        // Use fewer lines when the lines are very long
+        windowLines = WINDOW_LINES;
+        long end = pieces.lineStart(firstLine + windowLines);
+        while (windowLines > 1 && end - lineStart > WINDOW_BYTES) {
+            windowLines /= 2;
+            end = pieces.lineStart(firstLine + windowLines);
+        }
+        windowLines = Math.min(windowLines, pieces.lineCount() - firstLine);
+
+        // Show only a part of a line that is still too long
+        lineCut = end - lineStart > WINDOW_BYTES;
+        if (lineCut) {
+            start = boundary(lineStart + Math.clamp(column, 0, end - lineStart - WINDOW_BYTES));
+            end = boundary(start + WINDOW_BYTES);
+        } else {
+            start = lineStart;
+        }
+        this.column = start - lineStart;
+        shown = pieces.read(start, (int) (end - start));
+
+        loading = true;
+        buffer.beginIrreversibleAction();
+        buffer.setText(new String(shown, StandardCharsets.UTF_8), -1);
+        buffer.endIrreversibleAction();
+        loading = false;
+        changed = false;
+        buffer.setModified(dirty);
+    }
+
+    // Move an offset back to the first byte of the UTF-8 sequence that
+    // contains it, so the window is never cut inside a character
+    private long boundary(long offset) {
+        if (offset <= 0 || offset >= pieces.length())
+            return offset;
+        long from = Math.max(0, offset - 3);
+        byte[] bytes = pieces.read(from, (int) (offset - from + 1));
+        int i = bytes.length - 1;
+        while (i > 0 && (bytes[i] & 0xC0) == 0x80)
+            i--;
+        return from + i;
+    }
+
+    /**
+     * Write the changes in the window back into the piece table.
+     */
+    public void commit() {
+        if (!changed)
+            return;
+
+        var from = new TextIter();
+        var to = new TextIter();
+        buffer.getBounds(from, to);
+        byte[] now = buffer.getText(from, to, false).getBytes(StandardCharsets.UTF_8);
+
+        // Only replace the bytes between the common prefix and suffix
+        int max = Math.min(now.length, shown.length);
+        int prefix = 0;
+        while (prefix < max && now[prefix] == shown[prefix])
+            prefix++;
+        int suffix = 0;
+        while (suffix < max - prefix && now[now.length - 1 - suffix] == shown[shown.length - 1 - suffix])
+            suffix++;
+
+        pieces.delete(start + prefix, shown.length - prefix - suffix);
+        pieces.insert(start + prefix, Arrays.copyOfRange(now, prefix, now.length - suffix));
+        shown = now;
+        changed = false;
+        dirty = true;
+    }
+
+    /**
+     * Save the document in the background. The buffer must not be changed
+     * until saving has finished.
+     *
+     * @param target the file to write
+     * @param done   called on the main loop when saving has finished, with
+     *               the error that occurred, or null
+     */
+    public void save(Path target, Consumer<IOException> done) {
+        commit();
+        Thread.ofVirtual().name("LargeFile").start(() -> {
+            long begin = System.nanoTime();
+            IOException error = null;
+            try {
+                write(target);
+            } catch (IOException e) {
+                error = e;
+            }
+            long nanos = Math.max(1, System.nanoTime() - begin);
+            if (error == null)
+                GLib.log(LOG_DOMAIN, LEVEL_MESSAGE, "Saved %.1f MB in %d ms (%.1f MB/s)\n",
+                        pieces.length() / 1e6, (int) (nanos / 1_000_000), pieces.length() * 1000.0 / nanos);
+
+            var result = error;
+            GLib.idleAdd(GLib.PRIORITY_DEFAULT_IDLE, () -> {
+                if (result == null) {
+                    dirty = false;
+                    buffer.setModified(changed);
+                }
+                done.accept(result);
+                return false;
+            });
+        });
+    }
+
+    // Stream the pieces into a temporary file, and replace the target with it.
+    // The memory-mapped original stays valid after it is replaced.
+    private void write(Path target) throws IOException {
+        Path dir = target.toAbsolutePath().getParent();
+        Path temp = Files.createTempFile(dir, "." + target.getFileName(), ".tmp");
+        try {
+            try (var channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                pieces.writeTo(channel);
+                channel.force(true);
+            }
+            if (Files.exists(target)) {
+                try {
+                    Files.setPosixFilePermissions(temp, Files.getPosixFilePermissions(target));
+                } catch (UnsupportedOperationException ignored) {}
+            }
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+    }
+
+    /**
+     * Unmap the file.
+     */
+    @Override
+    public void close() {
+        pieces.close();
+    }
+}
@@ -0,0 +1,390 @@
+package io.github.jwharm.javagi.examples.codeeditor;
+
+import org.gnome.glib.GLib;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.IntStream;
+
+import static io.github.jwharm.javagi.examples.codeeditor.CodeEditor.LOG_DOMAIN;
+import static java.lang.foreign.ValueLayout.JAVA_BYTE;
+import static org.gnome.glib.LogLevelFlags.LEVEL_MESSAGE;
+
+/**
+ * A text document that is stored as a sequence of pieces of two buffers: the
+ * original file, which is memory-mapped and never changes, and an append-only
+ * buffer with all inserted text.
+ * <p>
+ * The pieces are stored in a balanced binary tree (a treap) that is ordered by
+ * position in the document. Every node knows the number of bytes and newlines
+ * in its subtree, so a byte offset or line number can be found, and text can
+ * be inserted or deleted, in O(log n) steps.
+ * <p>
+ * To count the newlines in a piece, both buffers keep the number of newlines
+ * before every block of 64 KiB. Counting the newlines in a range then takes at
+ * most two scans of part of a block. The memory that is used for this index is
+ * less than 0.02% of the size of the file.
+ * <p>
+ * The document is read and written as UTF-8 bytes. A PieceTable can be read
+ * from multiple threads, but it can only be changed by one thread at a time,
+ * while no other thread reads it.
+ */
+public final class PieceTable implements AutoCloseable {
+
+    private static final int BLOCK = 64 * 1024;
+
+    // Read 8 bytes at once, in a fixed byte order
+    private static final ValueLayout.OfLong WORD =
+            ValueLayout.JAVA_LONG_UNALIGNED.withOrder(ByteOrder.LITTLE_ENDIAN);
+
+    /*
+     * A buffer with text, and the number of newlines before each block.
+     */
+    private static final class Source {
+        MemorySegment data;
+        long size;
+        long[] newlines; // newlines[b] = number of newlines before block b
+
+        Source(MemorySegment data, long size, long[] newlines) {
+            this.data = data;
+            this.size = size;
+            this.newlines = newlines;
+        }
+
+        // The number of newlines before a position
+        long newlinesBefore(long pos) {
+            int block = (int) (pos / BLOCK);
+            return newlines[block] + count(data, (long) block * BLOCK, pos);
+        }
+
+        // The position of a newline
+        long findNewline(long index) {
+            // Find the last block with at most "index" newlines before it
+            int block = 0;
+            int last = (int) (size / BLOCK);
+            while (block < last) {
+                int mid = (block + last + 1) >>> 1;
+                if (newlines[mid] <= index)
+                    block = mid;
+                else
+                    last = mid - 1;
+            }
+
+            long remaining = index - newlines[block];
+            for (long pos = (long) block * BLOCK; pos < size; pos++)
+                if (data.get(JAVA_BYTE, pos) == '\n' && remaining-- == 0)
+                    return pos;
+            throw new IllegalStateException("Newline not found: " + index);
+        }
+
+        // Append bytes, and update the number of newlines before each block
+        long append(byte[] bytes) {
+            long start = size;
+            if (data.byteSize() < size + bytes.length) {
+                var grown = Arena.ofAuto().allocate(Math.max(data.byteSize() * 2, size + bytes.length + BLOCK));
+                grown.copyFrom(data.asSlice(0, size));
+                data = grown;
+            }
+            MemorySegment.copy(bytes, 0, data, JAVA_BYTE, size, bytes.length);
+            size += bytes.length;
+
+            int first = (int) (start / BLOCK) + 1;
+            int last = (int) (size / BLOCK);
+            if (newlines.length <= last)
+                newlines = Arrays.copyOf(newlines, Math.max(newlines.length * 2, last + 1));
+            for (int b = first; b <= last; b++)
+                newlines[b] = newlines[b - 1] + count(data, (long) (b - 1) * BLOCK, (long) b * BLOCK);
+            return start;
+        }
+    }
+
+    /*
+     * A node of the treap: a piece of one of the sources, and the totals of
+     * its subtree.
+     */
+    private static final class Node {
+        final Source source;
+        final long start;
+        final long length;
+        final long newlines;
+        final int priority = ThreadLocalRandom.current().nextInt();
+        Node left, right;
+        long totalBytes;
+        long totalNewlines;
+
+        Node(Source source, long start, long length) {
+            this.source = source;
+            this.start = start;
+            this.length = length;
+            this.newlines = source.newlinesBefore(start + length) - source.newlinesBefore(start);
+            update();
+        }
+
+        void update() {
+            totalBytes = length + bytes(left) + bytes(right);
+            totalNewlines = newlines + newlines(left) + newlines(right);
+        }
+    }
+
+    private final Arena arena;
+    private final Source added;
+    private Node root;
+
+    private PieceTable(Arena arena, Source original) {
+        this.arena = arena;
+        this.added = new Source(Arena.ofAuto().allocate(BLOCK), 0, new long[16]);
+        this.root = original.size == 0 ? null : new Node(original, 0, original.size);
+    }
+
+    /**
+     * Map a file into memory and count the newlines in every block.
+     *
+     * @param path the file to open
+     * @return a piece table with the contents of the file
+     * @throws IOException when the file cannot be read
+     */
+    public static PieceTable open(Path path) throws IOException {
+        Arena arena = Arena.ofShared();
+        try (var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long start = System.nanoTime();
+            var data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size(), arena);
+            long size = data.byteSize();
+            int blocks = (int) (size / BLOCK) + 1;
+
+            // Count the newlines in every block, in parallel
+            long[] newlines = new long[blocks + 1];
+            IntStream.range(0, blocks).parallel().forEach(b ->
+                    newlines[b + 1] = count(data, (long) b * BLOCK, Math.min(size, (long) (b + 1) * BLOCK)));
+            Arrays.parallelPrefix(newlines, Long::sum);
+
+            GLib.log(LOG_DOMAIN, LEVEL_MESSAGE, "Indexed %d MB in %d ms\n",
+                    (int) (size >> 20), (int) ((System.nanoTime() - start) / 1_000_000));
+            return new PieceTable(arena, new Source(data, size, newlines));
+        } catch (IOException | RuntimeException e) {
+            arena.close();
+            throw e;
+        }
+    }
+
+    /*
+     * Count the newlines in the range [from, to). Eight bytes are checked at
+     * once: after XOR-ing with a word of newline characters, newlines are zero
+     * bytes, which are found with bit arithmetic that doesn't overflow into
+     * neighbouring bytes.
+     */
+    private static long count(MemorySegment data, long from, long to) {
+        final long NEWLINES = 0x0A0A0A0A0A0A0A0AL;
+        final long LOW_BITS = 0x7F7F7F7F7F7F7F7FL;
+        long count = 0;
+        long pos = from;
+        for (; pos + 8 <= to; pos += 8) {
+            long x = data.get(WORD, pos) ^ NEWLINES;
+            count += Long.bitCount(~(((x & LOW_BITS) + LOW_BITS) | x | LOW_BITS));
+        }
+        for (; pos < to; pos++)
+            if (data.get(JAVA_BYTE, pos) == '\n')
+                count++;
+        return count;
+    }
+
+    private static long bytes(Node node) {
+        return node == null ? 0 : node.totalBytes;
+    }
+
+    private static long newlines(Node node) {
+        return node == null ? 0 : node.totalNewlines;
+    }
+
+    // Join two treaps. All pieces in a are before the pieces in b.
+    private static Node merge(Node a, Node b) {
+        if (a == null) return b;
+        if (b == null) return a;
+        if (a.priority > b.priority) {
+            a.right = merge(a.right, b);
+            a.update();
+            return a;
+        } else {
+            b.left = merge(a, b.left);
+            b.update();
+            return b;
+        }
+    }
+
+    // Split a treap into the first "offset" bytes and the rest. A piece that
+    // contains the offset is split into two pieces.
+    private static Node[] split(Node node, long offset) {
+        if (node == null)
+            return new Node[] {null, null};
+
+        long before = bytes(node.left);
+        if (offset <= before) {
+            Node[] parts = split(node.left, offset);
+            node.left = parts[1];
+            node.update();
+            return new Node[] {parts[0], node};
+        }
+        if (offset >= before + node.length) {
+            Node[] parts = split(node.right, offset - before - node.length);
+            node.right = parts[0];
+            node.update();
+            return new Node[] {node, parts[1]};
+        }
+
+        long length = offset - before;
+        var head = new Node(node.source, node.start, length);
+        var tail = new Node(node.source, node.start + length, node.length - length);
+        return new Node[] {merge(node.left, head), merge(tail, node.right)};
+    }
+
+    /**
+     * The length of the document in bytes.
+     */
+    public long length() {
+        return bytes(root);
+    }
+
+    /**
+     * The number of lines in the document.
+     */
+    public long lineCount() {
+        return newlines(root) + 1;
+    }
+
+    /**
+     * Find the byte offset where a line starts.
+     *
+     * @param line the line number, starting at 0
+     * @return the offset of the first byte of the line, or the length of the
+     *         document when the line doesn't exist
+     */
+    public long lineStart(long line) {
+        if (line <= 0)
+            return 0;
+
+        // Find the newline that ends the previous line
+        long index = line - 1;
+        long offset = 0;
+        Node node = root;
+        while (node != null) {
+            if (index < newlines(node.left)) {
+                node = node.left;
+                continue;
+            }
+            index -= newlines(node.left);
+            offset += bytes(node.left);
+            if (index < node.newlines) {
+                var source = node.source;
+                long pos = source.findNewline(source.newlinesBefore(node.start) + index);
+                return offset + pos - node.start + 1;
+            }
+            index -= node.newlines;
+            offset += node.length;
+            node = node.right;
+        }
+        return length();
+    }
+
+    /**
+     * Insert text.
+     *
+     * @param offset the byte offset where the text is inserted
+     * @param bytes  the UTF-8 encoded text
+     */
+    public void insert(long offset, byte[] bytes) {
+        if (bytes.length == 0)
+            return;
+        long start = added.append(bytes);
+        Node[] parts = split(root, offset);
+        root = merge(merge(parts[0], new Node(added, start, bytes.length)), parts[1]);
+    }
+
+    /**
+     * Delete text.
+     *
+     * @param offset the byte offset of the first byte to delete
+     * @param length the number of bytes to delete
+     */
+    public void delete(long offset, long length) {
+        if (length <= 0)
+            return;
+        Node[] before = split(root, offset);
+        Node[] after = split(before[1], length);
+        root = merge(before[0], after[1]);
+    }
+
+    /**
+     * Read a part of the document.
+     *
+     * @param offset the byte offset of the first byte to read
+     * @param length the number of bytes to read
+     * @return the bytes
+     */
+    public byte[] read(long offset, int length) {
+        byte[] result = new byte[length];
+        forEachPiece(root, 0, offset, offset + length, (segment, position) ->
+                MemorySegment.copy(segment, JAVA_BYTE, 0, result, (int) (position - offset), (int) segment.byteSize()));
+        return result;
+    }
+
+    /**
+     * Write the whole document to a channel, piece by piece.
+     *
+     * @param channel the channel to write to
+     * @throws IOException when writing fails
+     */
+    public void writeTo(WritableByteChannel channel) throws IOException {
+        try {
+            forEachPiece(root, 0, 0, length(), (segment, _) -> {
+                var buffer = segment.asByteBuffer();
+                try {
+                    while (buffer.hasRemaining())
+                        channel.write(buffer);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    @FunctionalInterface
+    private interface PieceConsumer {
+        void accept(MemorySegment segment, long position);
+    }
+
+    // Visit the parts of the pieces in the range [from, to), in order. The
+    // node starts at position "base" in the document.
+    private static void forEachPiece(Node node, long base, long from, long to, PieceConsumer consumer) {
+        if (node == null || from >= to)
+            return;
+        long pieceStart = base + bytes(node.left);
+        long pieceEnd = pieceStart + node.length;
+        if (from < pieceStart)
+            forEachPiece(node.left, base, from, to, consumer);
+        long start = Math.max(from, pieceStart);
+        long end = Math.min(to, pieceEnd);
+        if (start < end)
+            consumer.accept(node.source.data.asSlice(node.start + start - pieceStart, end - start), start);
+        if (to > pieceEnd)
+            forEachPiece(node.right, pieceEnd, from, to, consumer);
+    }
+
+    /**
+     * Unmap the original file.
+     */
+    @Override
+    public void close() {
+        arena.close();
+    }
+}
@@ -0,0 +1,107 @@
+package io.github.jwharm.javagi.examples.columnview;
+
+import io.github.jwharm.javagi.examples.columnview.ColumnViewDatagrid.Row;
+import org.gnome.gio.ListStore;
+import org.gnome.glib.GLib;
+
+import java.util.function.IntFunction;
+
+/**
+ * Loads a large number of rows into a ListStore.
+ * <p>
+ * Every call to {@link ListStore#append} is a native call that emits an
+ * "items-changed" signal, which the ColumnView handles immediately. This class
+ * creates the rows in Java, and adds them to the ListStore in chunks with
+ * {@link ListStore#splice}, so there is only one native call and one signal
+ * emission per chunk. The chunks can also be spread over multiple main loop
+ * iterations, so the window is responsive before loading has finished.
+ */
+public final class BulkLoader {
+
+    /**
+     * Callback that is notified about the loading progress.
+     */
+    @FunctionalInterface
+    public interface Progress {
+        void update(int loaded, int total);
+    }
+
+    private final ListStore<Row> store;
+    private final IntFunction<Row> rowFactory;
+    private final int total;
+    private final int chunkSize;
+
+    /**
+     * Create a BulkLoader.
+     *
+     * @param store      the ListStore to add rows to
+     * @param rowFactory creates the row with the requested index
+     * @param total      the number of rows to add
+     * @param chunkSize  the number of rows to add in one splice operation
+     */
+    public BulkLoader(ListStore<Row> store, IntFunction<Row> rowFactory, int total, int chunkSize) {
+        this.store = store;
+        this.rowFactory = rowFactory;
+        this.total = total;
+        this.chunkSize = Math.max(1, chunkSize);
+    }
+
+    /**
+     * Add all rows one by one with {@link ListStore#append}. This is the
+     * reference to compare the other methods with.
+     */
+    public void appendAll() {
+        long start = System.nanoTime();
+        for (int i = 0; i < total; i++)
+            store.append(rowFactory.apply(i));
+        report("append", start);
+    }
+
+    /**
+     * Add all rows in chunks, before returning.
+     */
+    public void spliceAll() {
+        long start = System.nanoTime();
+        for (int loaded = 0; loaded < total; )
+            loaded = spliceChunk(loaded);
+        report("splice", start);
+    }
+
+    /**
+     * Add all rows in chunks, one chunk per main loop iteration. This method
+     * returns immediately.
+     *
+     * @param progress notified after every chunk
+     * @param done     called when all rows have been added
+     */
+    public void spliceIdle(Progress progress, Runnable done) {
+        long start = System.nanoTime();
+        var loaded = new int[] {0};
+        GLib.idleAdd(GLib.PRIORITY_DEFAULT_IDLE, () -> {
+            loaded[0] = spliceChunk(loaded[0]);
+            progress.update(loaded[0], total);
+            if (loaded[0] < total)
+                return true; // continue with the next chunk
+
+            report("splice (idle)", start);
+            done.run();
+            return false; // remove the idle source
+        });
+    }
+
+    // Create the next chunk of rows and add them to the end of the store
+    private int spliceChunk(int loaded) {
+        var chunk = new Row[Math.min(chunkSize, total - loaded)];
+        for (int i = 0; i < chunk.length; i++)
+            chunk[i] = rowFactory.apply(loaded + i);
+        store.splice(store.getNItems(), 0, chunk);
+        return loaded + chunk.length;
+    }
+
+    // Print the throughput
+    private void report(String method, long start) {
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("Loaded %d rows with %s in %.0f ms (%.0f rows/s)%n",
+                total, method, seconds * 1000, total / seconds);
+    }
+}
@@ -0,0 +1,281 @@
+package io.github.jwharm.javagi.examples.columnview;
+
+import org.gnome.gtk.Widget;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.Linker;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.SymbolLookup;
+import java.lang.invoke.MethodHandle;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+
+import static java.lang.foreign.ValueLayout.JAVA_BYTE;
+import static java.lang.foreign.ValueLayout.JAVA_LONG;
+
+/**
+ * Sets the text of list item widgets without creating garbage.
+ * <p>
+ * A generated setter like {@code Inscription.setText(String)} allocates a new
+ * native copy of the Java String on every call. The CellBinder calls the
+ * native setter directly with a pointer to a UTF-8 string that is already in
+ * native memory: either data that is stored off-heap anyway, or a copy in a
+ * cache of native strings, keyed by a caller-supplied key (for example, the
+ * row index and column). The cache has a fixed number of fixed-size slots,
+ * allocated once. Texts that don't fit in a slot are set with the normal
+ * setter.
+ * <p>
+ * The CellBinder remembers which key is bound to every widget, and skips the
+ * native call completely when a widget is bound to the same key again.
+ * <p>
+ * It can also measure the number of bytes that are allocated on the Java
+ * heap during each bind, to verify that scrolling doesn't create garbage.
+ * <p>
+ * The ListViewer example uses this class as well.
+ */
+public final class CellBinder {
+
+    /**
+     * Function that sets the text with the normal (allocating) setter, for
+     * texts that don't fit in a cache slot.
+     */
+    @FunctionalInterface
+    public interface FallbackSetter<W extends Widget> {
+        void set(W widget, String text);
+    }
+
+    private static final long UNBOUND = -1;
+
+    // The native setter, with both pointers passed as 64-bit integers
+    // so no MemorySegment instances have to be created for them
+    private final MethodHandle setter;
+
+    // Cache of native strings
+    private final int slotSize;
+    private final MemorySegment slots;
+    private final long[] slotKeys;
+
+    // The key that is bound to each widget, stored in an open-addressing
+    // hash table indexed by the address of the widget
+    private long[] widgets = new long[256];
+    private long[] boundKeys = new long[256];
+    private int widgetCount = 0;
+
+    // Allocation statistics
+    private final com.sun.management.ThreadMXBean threadBean =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    private long binds = 0;
+    private long skipped = 0;
+    private long allocatedBytes = 0;
+
+    /**
+     * Create a CellBinder.
+     *
+     * @param setterName the name of the native function that sets the text,
+     *                   for example {@code "gtk_inscription_set_text"}
+     * @param slotCount  the number of native strings to cache
+     * @param slotSize   the maximum size of a cached string in bytes
+     */
+    public CellBinder(String setterName, int slotCount, int slotSize) {
+        this.setter = Linker.nativeLinker().downcallHandle(
+                SymbolLookup.loaderLookup().find(setterName).orElseThrow(),
+                FunctionDescriptor.ofVoid(JAVA_LONG, JAVA_LONG));
+        this.slotSize = slotSize;
+        this.slots = Arena.ofAuto().allocate((long) slotCount * slotSize);
+        this.slotKeys = new long[slotCount];
+        Arrays.fill(slotKeys, UNBOUND);
+    }
+
+    /**
+     * Reset the bound key of a new widget. This must be called from the
+     * "setup" callback, because the address of a destroyed widget can be
+     * reused for a new one.
+     *
+     * @param widget the newly created widget
+     */
+    public void setup(Widget widget) {
+        put(widget.handle().address(), UNBOUND);
+    }
+
+    /**
+     * Check whether a widget is already bound to a key, before the text for
+     * the key is produced. When it is, the bind is counted as unchanged, and
+     * the caller can skip it.
+     *
+     * @param widget the widget
+     * @param key    a key that uniquely identifies the text
+     * @return true when the widget is already bound to the key
+     */
+    public boolean isBound(Widget widget, long key) {
+        if (get(widget.handle().address()) != key)
+            return false;
+        skipped++;
+        return true;
+    }
+
+    /**
+     * Set the text of a widget to a NUL-terminated UTF-8 string in native
+     * memory.
+     *
+     * @param widget  the widget
+     * @param key     a key that uniquely identifies the text
+     * @param address the memory address of the text
+     */
+    public void bind(Widget widget, long key, long address) {
+        long widgetAddress = widget.handle().address();
+        if (get(widgetAddress) == key) {
+            skipped++;
+            return;
+        }
+        invoke(widgetAddress, address);
+        put(widgetAddress, key);
+    }
+
+    /**
+     * Set the text of a widget to a Java String. The native copy of the
+     * String is cached under the requested key.
+     *
+     * @param widget   the widget
+     * @param key      a key that uniquely identifies the text
+     * @param text     the text
+     * @param fallback sets the text when it doesn't fit in the cache
+     */
+    public <W extends Widget> void bind(W widget, long key, String text, FallbackSetter<W> fallback) {
+        long widgetAddress = widget.handle().address();
+        if (get(widgetAddress) == key) {
+            skipped++;
+            return;
+        }
+
+        int slot = (int) Long.remainderUnsigned(mix(key), slotKeys.length);
+        long offset = (long) slot * slotSize;
+        if (slotKeys[slot] != key) {
+            slotKeys[slot] = UNBOUND;
+            if (!encode(text, slots, offset, slotSize)) {
+                fallback.set(widget, text);
+                put(widgetAddress, key);
+                return;
+            }
+            slotKeys[slot] = key;
+        }
+        invoke(widgetAddress, slots.address() + offset);
+        put(widgetAddress, key);
+    }
+
+    /**
+     * Start measuring the heap allocations of a bind operation.
+     *
+     * @return the value to pass to {@link #endBind(long)}
+     */
+    public long startBind() {
+        return threadBean.getCurrentThreadAllocatedBytes();
+    }
+
+    /**
+     * Stop measuring the heap allocations of a bind operation.
+     *
+     * @param start the value that was returned by {@link #startBind()}
+     */
+    public void endBind(long start) {
+        allocatedBytes += threadBean.getCurrentThreadAllocatedBytes() - start;
+        binds++;
+    }
+
+    /**
+     * Print and reset the bind statistics.
+     */
+    public void report() {
+        if (binds == 0)
+            return;
+        System.out.printf("%d binds (%d unchanged), %d bytes allocated (%.1f bytes/bind)%n",
+                binds, skipped, allocatedBytes, (double) allocatedBytes / binds);
+        binds = skipped = allocatedBytes = 0;
+    }
+
+    private void invoke(long widgetAddress, long textAddress) {
+        try {
+            setter.invokeExact(widgetAddress, textAddress);
+        } catch (Throwable t) {
+            throw new AssertionError(t);
+        }
+    }
+
+    // Encode a String as NUL-terminated UTF-8 in the target segment, without
+    // allocating a byte array. Returns false when the target is too small.
+    private static boolean encode(String text, MemorySegment target, long offset, int size) {
+        long pos = offset, limit = offset + size - 1; // reserve room for the NUL
+        for (int i = 0; i < text.length(); i++) {
+            int c = text.charAt(i);
+            if (Character.isHighSurrogate((char) c) && i + 1 < text.length())
+                c = Character.toCodePoint((char) c, text.charAt(++i));
+            int n = c < 0x80 ? 1 : c < 0x800 ? 2 : c < 0x10000 ? 3 : 4;
+            if (pos + n > limit)
+                return false;
+            switch (n) {
+                case 1 -> target.set(JAVA_BYTE, pos, (byte) c);
+                case 2 -> {
+                    target.set(JAVA_BYTE, pos, (byte) (0xC0 | (c >> 6)));
+                    target.set(JAVA_BYTE, pos + 1, (byte) (0x80 | (c & 0x3F)));
+                }
+                case 3 -> {
+                    target.set(JAVA_BYTE, pos, (byte) (0xE0 | (c >> 12)));
+                    target.set(JAVA_BYTE, pos + 1, (byte) (0x80 | ((c >> 6) & 0x3F)));
+                    target.set(JAVA_BYTE, pos + 2, (byte) (0x80 | (c & 0x3F)));
+                }
+                default -> {
+                    target.set(JAVA_BYTE, pos, (byte) (0xF0 | (c >> 18)));
+                    target.set(JAVA_BYTE, pos + 1, (byte) (0x80 | ((c >> 12) & 0x3F)));
+                    target.set(JAVA_BYTE, pos + 2, (byte) (0x80 | ((c >> 6) & 0x3F)));
+                    target.set(JAVA_BYTE, pos + 3, (byte) (0x80 | (c & 0x3F)));
+                }
+            }
+            pos += n;
+        }
+        target.set(JAVA_BYTE, pos, (byte) 0);
+        return true;
+    }
+
+    // Spread the bits of a key or address over the whole long value
+    private static long mix(long value) {
+        value ^= value >>> 33;
+        value *= 0xff51afd7ed558ccdL;
+        value ^= value >>> 33;
+        return value;
+    }
+
+    // Lookup the key that is bound to a widget
+    private long get(long widgetAddress) {
+        int mask = widgets.length - 1;
+        for (int i = (int) mix(widgetAddress) & mask; widgets[i] != 0; i = (i + 1) & mask)
+            if (widgets[i] == widgetAddress)
+                return boundKeys[i];
+        return UNBOUND;
+    }
+
+    // Store the key that is bound to a widget
+    private void put(long widgetAddress, long key) {
+        int mask = widgets.length - 1;
+        int i = (int) mix(widgetAddress) & mask;
+        for (; widgets[i] != 0; i = (i + 1) & mask) {
+            if (widgets[i] == widgetAddress) {
+                boundKeys[i] = key;
+                return;
+            }
+        }
+        widgets[i] = widgetAddress;
+        boundKeys[i] = key;
+        if (++widgetCount * 2 > widgets.length)
+            grow();
+    }
+
+    private void grow() {
+        long[] oldWidgets = widgets, oldKeys = boundKeys;
+        widgets = new long[oldWidgets.length * 2];
+        boundKeys = new long[oldWidgets.length * 2];
+        widgetCount = 0;
+        for (int i = 0; i < oldWidgets.length; i++)
+            if (oldWidgets[i] != 0)
+                put(oldWidgets[i], oldKeys[i]);
+    }
+}
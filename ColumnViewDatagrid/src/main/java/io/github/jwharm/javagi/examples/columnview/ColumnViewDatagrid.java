@@ -2,18 +2,45 @@ package io.github.jwharm.javagi.examples.columnview;
 
 import org.javagi.gobject.types.Types;
 import org.gnome.gio.ApplicationFlags;
+import org.gnome.gio.ListModel;
+import org.gnome.glib.GLib;
 import org.gnome.glib.Type;
 import org.gnome.gobject.GObject;
 import org.gnome.gtk.*;
 import org.gnome.gio.ListStore;
 
+import java.nio.file.Path;
+import java.util.function.Consumer;
+import java.util.concurrent.atomic.AtomicLong;
+
 /**
  * Example class for constructing a Gtk ColumnView with a lengthy table of data.
  */
 public class ColumnViewDatagrid {
-    
+
+    // The number of rows, and the type of model ("store" or "lazy")
+    private static final int ROWS = Integer.getInteger("datagrid.rows", 1000);
+    private static final String MODEL = System.getProperty("datagrid.model", "store");
+
+    // How rows are added to the ListStore ("append", "splice" or "idle"),
+    // and the number of rows that are added at once with "splice" and "idle"
+    private static final String LOAD = System.getProperty("datagrid.load", "append");
+    private static final int CHUNK_SIZE = Integer.getInteger("datagrid.chunk", 10_000);
+
+    // A CSV file to load in the background, and the maximum number of
+    // loaded batches that may wait to be added to the ListStore
+    private static final String CSV = System.getProperty("datagrid.csv");
+    private static final int MAX_PENDING = Integer.getInteger("datagrid.pending", 4);
+
+    // The maximum number of Row objects that the lazy model keeps alive
+    private static final int ROW_CACHE_SIZE = 1024;
+
+    // Print the number of bytes that are allocated while binding cells
+    private static final boolean BIND_STATS = Boolean.getBoolean("datagrid.bindstats");
+
     Application app;
     ListStore<Row> store;
+    ProgressBar progressBar;
 
     public ColumnViewDatagrid(String[] args) {
         app = new Application("my.example.ColumnView", ApplicationFlags.DEFAULT_FLAGS);
@@ -22,23 +49,36 @@ public class ColumnViewDatagrid {
     }
 
     private void onActivate() {
-        /*
-         * The ListStore is the data model behind our Gtk ColumnView. It is
-         * populated with Row instances. The Row class is defined below. For
-         * this example it simply contains two Strings, one for each column.
-         */
-        store = new ListStore<>(Row.gtype);
-        for (int i = 0; i < 1000; i++)
-            store.append(new Row("col1 " + i, "col2 " + i));
+        // The progress bar is only shown while rows are being loaded
+        progressBar = ProgressBar.builder()
+                .setVisible(false)
+                .build();
+
+        // The lazy model is set when the RowStore has been filled
+        ListModel<Row> model = switch (MODEL) {
+            case "lazy" -> null;
+            default -> createListStore();
+        };
 
         // Create the ColumnView and put it in a scrollable window
-        var sel = new SingleSelection<Row>(store);
-        var columnview = createColumnView(sel);
+        var sel = new SingleSelection<>(model);
+        var binder = new CellBinder("gtk_inscription_set_text", 1024, 64);
+        var columnview = createColumnView(sel, binder);
         var scroll = ScrolledWindow.builder()
                 // Disable horizontal scrolling
                 .setHscrollbarPolicy(PolicyType.NEVER)
                 .build();
         scroll.setChild(columnview);
+        scroll.setVexpand(true);
+
+        var box = new Box(Orientation.VERTICAL, 0);
+        box.append(progressBar);
+        box.append(scroll);
+        if (MODEL.equals("lazy"))
+            loadLazyModel(viewModel -> {
+                sel.setModel(viewModel);
+                box.prepend(createFilterBar(columnview, viewModel));
+            });
 
         // Create and present the window
         var window = ApplicationWindow.builder()
@@ -47,11 +87,122 @@ public class ColumnViewDatagrid {
                 .setApplication(app)
                 .setTitle("ColumnView Example")
                 .build();
-        window.setChild(scroll);
+        window.setChild(box);
         window.present();
+
+        if (BIND_STATS)
+            GLib.timeoutAddSeconds(GLib.PRIORITY_DEFAULT, 5, () -> {
+                binder.report();
+                return true;
+            });
+    }
+
+    /*
+     * The ListStore is the data model behind our Gtk ColumnView. It is
+     * populated with Row instances. The Row class is defined below. For
+     * this example it simply contains two Strings, one for each column.
+     *
+     * Adding the rows one by one is slow for large datasets, because every
+     * append emits an "items-changed" signal. The BulkLoader can add them in
+     * chunks instead, optionally spread over multiple main loop iterations.
+     * A CSV file is parsed on background threads by the RowIngestor.
+     */
+    private ListModel<Row> createListStore() {
+        store = new ListStore<>(Row.gtype);
+        if (CSV != null) {
+            progressBar.setVisible(true);
+            new RowIngestor(store, CHUNK_SIZE, MAX_PENDING).ingest(Path.of(CSV),
+                    progressBar::setFraction,
+                    () -> progressBar.setVisible(false));
+            return store;
+        }
+
+        var loader = new BulkLoader(store, i -> new Row("col1 " + i, "col2 " + i), ROWS, CHUNK_SIZE);
+        switch (LOAD) {
+            case "splice" -> loader.spliceAll();
+            case "idle" -> {
+                progressBar.setVisible(true);
+                loader.spliceIdle(
+                        (loaded, total) -> progressBar.setFraction((double) loaded / total),
+                        () -> progressBar.setVisible(false));
+            }
+            default -> loader.appendAll();
+        }
+        return store;
     }
 
-    private static ColumnView createColumnView(SingleSelection<Row> sel) {
+    /*
+     * For very large datasets, creating a GObject for every row is too
+     * expensive. The RowListModel reads the data from an off-heap RowStore
+     * and only creates Row instances for the rows that the ColumnView
+     * actually displays. The RowViewModel on top of it can sort and filter
+     * the rows in the background.
+     *
+     * The RowStore is filled on a background thread, so the window is shown
+     * immediately, however many rows there are. The RowStore is not
+     * thread-safe, so the model is only created on the main loop when the
+     * RowStore is complete.
+     */
+    private void loadLazyModel(Consumer<RowViewModel> loaded) {
+        progressBar.setVisible(true);
+        Thread.ofVirtual().start(() -> {
+            var rowStore = new RowStore(2, ROWS);
+            int step = Math.max(1, ROWS / 100);
+            for (int i = 0; i < ROWS; i++) {
+                rowStore.add("col1 " + i, "col2 " + i);
+                if ((i + 1) % step == 0) {
+                    double fraction = (double) (i + 1) / ROWS;
+                    GLib.idleAdd(GLib.PRIORITY_DEFAULT_IDLE, () -> {
+                        progressBar.setFraction(fraction);
+                        return false;
+                    });
+                }
+            }
+            GLib.idleAdd(GLib.PRIORITY_DEFAULT_IDLE, () -> {
+                progressBar.setVisible(false);
+                loaded.accept(new RowViewModel(new RowListModel(rowStore, ROW_CACHE_SIZE)));
+                return false;
+            });
+        });
+    }
+
+    /*
+     * Create a search entry to filter the rows, and make the column headers
+     * clickable to sort the rows. The sorters that are set on the columns are
+     * never used to compare rows: they only make the headers clickable. The
+     * RowViewModel does the actual sorting.
+     */
+    private static Box createFilterBar(ColumnView columnview, RowViewModel model) {
+        var columns = columnview.getColumns();
+        for (int i = 0; i < columns.getNItems(); i++) {
+            var column = (ColumnViewColumn) columns.getItem(i);
+            column.setId(Integer.toString(i));
+            column.setSorter(new CustomSorter(null));
+        }
+
+        var sorter = (ColumnViewSorter) columnview.getSorter();
+        sorter.onChanged(_ -> {
+            var column = sorter.getPrimarySortColumn();
+            model.sort(column == null ? -1 : Integer.parseInt(column.getId()),
+                    sorter.getPrimarySortOrder() == SortType.DESCENDING);
+        });
+
+        // Filter on all columns, or on one specific column
+        var columnChooser = DropDown.fromStrings(new String[] {"All columns", "Column 1", "Column 2"});
+        var entry = SearchEntry.builder()
+                .setHexpand(true)
+                .build();
+        Runnable applyFilter = () -> model.filter(columnChooser.getSelected() - 1, entry.getText());
+        entry.onSearchChanged(applyFilter::run);
+        columnChooser.onNotify("selected", _ -> applyFilter.run());
+
+        var box = new Box(Orientation.HORIZONTAL, 6);
+        box.append(entry);
+        box.append(columnChooser);
+        return box;
+    }
+
+    private static ColumnView createColumnView(SingleSelection<Row> sel, CellBinder binder) {
         var columnview = new ColumnView(sel);
 
         // One ListItemFactory for each column
@@ -60,7 +211,8 @@ public class ColumnViewDatagrid {
 
         /*
          * A SignalListItemFactory creates and binds widgets for the list items.
-         * We use a Gtk Inscription widget to display the text.
+         * We use a Gtk Inscription widget to display the text. The CellBinder
+         * sets the text without allocating a new native string on every bind.
          */
         col1factory.onSetup(item -> {
             var listitem = (ListItem) item;
@@ -68,13 +220,9 @@ public class ColumnViewDatagrid {
                     .setXalign(0)
                     .build();
             listitem.setChild(inscription);
+            binder.setup(inscription);
         });
-        col1factory.onBind(item -> {
-            var listitem = (ListItem) item;
-            var inscription = (Inscription) listitem.getChild();
-            var row = (Row) listitem.getItem();
-            inscription.setText(row.col1);
-        });
+        col1factory.onBind(item -> bindCell(binder, (ListItem) item, 0));
 
         col2factory.onSetup(item -> {
             var listitem = (ListItem) item;
@@ -82,13 +230,9 @@ public class ColumnViewDatagrid {
                     .setXalign(0)
                     .build();
             listitem.setChild(inscription);
+            binder.setup(inscription);
         });
-        col2factory.onBind(item -> {
-            var listitem = (ListItem) item;
-            var inscription = (Inscription) listitem.getChild();
-            var row = (Row) listitem.getItem();
-            inscription.setText(row.col2);
-        });
+        col2factory.onBind(item -> bindCell(binder, (ListItem) item, 1));
 
         // Create the columns and add them to the column view
         var col1 = new ColumnViewColumn("Column 1", col1factory);
@@ -98,6 +242,27 @@ public class ColumnViewDatagrid {
         return columnview;
     }
 
+    /*
+     * Display the value of a cell. When the row is stored in a RowStore, the
+     * native string in the RowStore is used directly. Otherwise, the
+     * CellBinder caches a native copy of the Java String, keyed by the id of
+     * the row: the position of a row changes when rows are inserted before it.
+     */
+    private static void bindCell(CellBinder binder, ListItem listitem, int column) {
+        long start = BIND_STATS ? binder.startBind() : 0;
+        var inscription = (Inscription) listitem.getChild();
+        var row = (Row) listitem.getItem();
+        if (row.store != null) {
+            long key = (long) row.index * 2 + column;
+            binder.bind(inscription, key, row.store.address(row.index, column));
+        } else {
+            long key = row.id * 2 + column;
+            binder.bind(inscription, key, column == 0 ? row.col1 : row.col2, Inscription::setText);
+        }
+        if (BIND_STATS)
+            binder.endBind(start);
+    }
+
     /**
      * This class represents one row of data. To use it in a ListStore, it must
      * be registered as a GObject-derived type. Other than that, it's just a
@@ -107,11 +272,26 @@ public class ColumnViewDatagrid {
         public static Type gtype = Types.register(Row.class);
         public String col1;
         public String col2;
-        
+
+        // A unique id, that identifies the row wherever it is in the list
+        private static final AtomicLong nextId = new AtomicLong();
+        public final long id = nextId.getAndIncrement();
+
+        // When the row was created from a RowStore, the store and the index
+        // of the row in the store. The values are not decoded into the
+        // Strings: the cells are bound with the native strings in the store.
+        public RowStore store = null;
+        public int index = -1;
+
         public Row(String col1, String col2) {
             this.col1 = col1;
             this.col2 = col2;
         }
+
+        public Row(RowStore store, int index) {
+            this.store = store;
+            this.index = index;
+        }
     }
 
     public static void main(String[] args) {
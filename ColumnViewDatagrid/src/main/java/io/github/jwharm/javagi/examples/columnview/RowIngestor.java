@@ -0,0 +1,221 @@
+package io.github.jwharm.javagi.examples.columnview;
+
+import io.github.jwharm.javagi.examples.columnview.ColumnViewDatagrid.Row;
+import org.gnome.gio.ListStore;
+import org.gnome.glib.GLib;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.lang.foreign.ValueLayout.JAVA_BYTE;
+
+/**
+ * Reads rows from a CSV file in the background, and adds them to a ListStore
+ * on the main loop.
+ * <p>
+ * The file is memory-mapped and split into one range per CPU core. Every
+ * range is parsed on its own virtual thread into batches of Row objects.
+ * Finished batches are handed to the GLib main loop with an idle callback,
+ * which adds the whole batch with one {@link ListStore#splice} call. A
+ * semaphore limits the number of batches that are waiting for the main loop,
+ * so the parser threads slow down when the UI cannot keep up.
+ * <p>
+ * The first line of the file is the header, and is skipped. The first two
+ * fields of every other line are used as the row values. Quoted fields are
+ * not supported. The ranges are loaded in parallel, but the rows are always
+ * in file order: a batch is inserted after the rows of its own range and of
+ * all ranges before it, so the rows of later ranges move down while earlier
+ * ranges are still loading.
+ */
+public final class RowIngestor {
+
+    /**
+     * Callback that is notified about the ingestion progress, on the main
+     * thread.
+     */
+    @FunctionalInterface
+    public interface Progress {
+        void update(double fraction);
+    }
+
+    private final ListStore<Row> store;
+    private final int batchSize;
+    private final Semaphore pending;
+
+    private final AtomicLong parsedBytes = new AtomicLong();
+    private final AtomicLong parsedRows = new AtomicLong();
+
+    // The number of rows of every range that are in the ListStore, only
+    // used on the main thread
+    private int[] inserted;
+
+    /**
+     * Create a RowIngestor.
+     *
+     * @param store             the ListStore to add the rows to
+     * @param batchSize         the number of rows that are added to the
+     *                          ListStore at once
+     * @param maxPendingBatches the maximum number of batches that wait to be
+     *                          added on the main loop
+     */
+    public RowIngestor(ListStore<Row> store, int batchSize, int maxPendingBatches) {
+        this.store = store;
+        this.batchSize = Math.max(1, batchSize);
+        this.pending = new Semaphore(Math.max(1, maxPendingBatches));
+    }
+
+    /**
+     * Start reading the file. This method returns immediately.
+     *
+     * @param file     the CSV file to read
+     * @param progress notified after every batch
+     * @param done     called on the main thread when all rows have been added
+     */
+    public void ingest(Path file, Progress progress, Runnable done) {
+        long start = System.nanoTime();
+        Arena arena = Arena.ofShared();
+        MemorySegment data;
+        try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size(), arena);
+        } catch (IOException e) {
+            arena.close();
+            System.err.printf("Cannot read %s: %s%n", file, e.getMessage());
+            done.run();
+            return;
+        }
+
+        // Parse each range on a virtual thread
+        ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+        var tasks = new ArrayList<CompletableFuture<Void>>();
+        long[] bounds = split(data, headerEnd(data), Runtime.getRuntime().availableProcessors());
+        inserted = new int[bounds.length - 1];
+        for (int i = 0; i < bounds.length - 1; i++) {
+            int range = i;
+            long from = bounds[i], to = bounds[i + 1];
+            tasks.add(CompletableFuture.runAsync(() -> parse(data, range, from, to, progress), executor));
+        }
+        executor.shutdown();
+
+        // When all ranges are parsed, schedule the "done" callback. It runs
+        // after the idle callbacks of the last batches, because idle sources
+        // with the same priority are dispatched in order.
+        CompletableFuture.allOf(tasks.toArray(CompletableFuture[]::new)).whenComplete((_, error) -> {
+            arena.close();
+            if (error != null)
+                System.err.printf("Error reading %s: %s%n", file, error.getMessage());
+            GLib.idleAdd(GLib.PRIORITY_DEFAULT_IDLE, () -> {
+                double seconds = (System.nanoTime() - start) / 1e9;
+                System.out.printf("Ingested %d rows in %.0f ms (%.0f rows/s)%n",
+                        parsedRows.get(), seconds * 1000, parsedRows.get() / seconds);
+                done.run();
+                return false;
+            });
+        });
+    }
+
+    // The offset of the line after the header line
+    private static long headerEnd(MemorySegment data) {
+        long size = data.byteSize();
+        long pos = 0;
+        while (pos < size && data.get(JAVA_BYTE, pos) != '\n')
+            pos++;
+        return Math.min(pos + 1, size);
+    }
+
+    // Split the data after the header into ranges that start at the
+    // beginning of a line
+    private static long[] split(MemorySegment data, long start, int parts) {
+        long size = data.byteSize();
+        long[] bounds = new long[parts + 1];
+        bounds[0] = start;
+        for (int i = 1; i < parts; i++) {
+            long pos = Math.max(bounds[i - 1], start + (size - start) * i / parts);
+            while (pos < size && pos > 0 && data.get(JAVA_BYTE, pos - 1) != '\n')
+                pos++;
+            bounds[i] = pos;
+        }
+        bounds[parts] = size;
+        return bounds;
+    }
+
+    // Parse the lines in the range [from, to) and publish them in batches
+    private void parse(MemorySegment data, int range, long from, long to, Progress progress) {
+        var batch = new ArrayList<Row>(batchSize);
+        byte[] buffer = new byte[256];
+        long lineStart = from;
+        for (long pos = from; pos <= to; pos++) {
+            if (pos < to && data.get(JAVA_BYTE, pos) != '\n')
+                continue;
+
+            long lineEnd = pos;
+            if (lineEnd > lineStart && data.get(JAVA_BYTE, lineEnd - 1) == '\r')
+                lineEnd--;
+            if (lineEnd > lineStart) {
+                if (lineEnd - lineStart > buffer.length)
+                    buffer = new byte[(int) (lineEnd - lineStart)];
+                batch.add(parseLine(data, lineStart, (int) (lineEnd - lineStart), buffer));
+            }
+            lineStart = pos + 1;
+
+            if (batch.size() == batchSize) {
+                publish(batch, range, pos + 1 - from, progress, data.byteSize());
+                batch = new ArrayList<>(batchSize);
+                from = pos + 1;
+            }
+        }
+        if (!batch.isEmpty())
+            publish(batch, range, to - from, progress, data.byteSize());
+    }
+
+    // Create a Row from the first two comma-separated fields of a line
+    private static Row parseLine(MemorySegment data, long offset, int length, byte[] buffer) {
+        MemorySegment.copy(data, JAVA_BYTE, offset, buffer, 0, length);
+        int comma1 = indexOf(buffer, (byte) ',', 0, length);
+        int comma2 = comma1 == length ? length : indexOf(buffer, (byte) ',', comma1 + 1, length);
+        String col1 = new String(buffer, 0, comma1, StandardCharsets.UTF_8);
+        String col2 = comma1 == length ? ""
+                : new String(buffer, comma1 + 1, comma2 - comma1 - 1, StandardCharsets.UTF_8);
+        return new Row(col1, col2);
+    }
+
+    private static int indexOf(byte[] buffer, byte b, int from, int to) {
+        for (int i = from; i < to; i++)
+            if (buffer[i] == b)
+                return i;
+        return to;
+    }
+
+    // Wait until there is room for another batch, and add it on the main loop,
+    // after the rows of the same range and of the ranges before it
+    private void publish(ArrayList<Row> batch, int range, long bytes, Progress progress, long totalBytes) {
+        try {
+            pending.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        var rows = batch.toArray(Row[]::new);
+        GLib.idleAdd(GLib.PRIORITY_DEFAULT_IDLE, () -> {
+            int position = 0;
+            for (int i = 0; i <= range; i++)
+                position += inserted[i];
+            store.splice(position, 0, rows);
+            inserted[range] += rows.length;
+            pending.release();
+            parsedRows.addAndGet(rows.length);
+            progress.update((double) parsedBytes.addAndGet(bytes) / totalBytes);
+            return false;
+        });
+    }
+}
@@ -0,0 +1,70 @@
+package io.github.jwharm.javagi.examples.columnview;
+
+import io.github.jwharm.javagi.examples.columnview.ColumnViewDatagrid.Row;
+import org.javagi.gobject.types.Types;
+import org.gnome.gio.ListModel;
+import org.gnome.glib.Type;
+import org.gnome.gobject.GObject;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A GListModel implementation that creates {@link Row} objects on demand.
+ * <p>
+ * The data itself lives in a {@link RowStore}. A Row is only created when the
+ * ColumnView asks for it with {@link #getItem(int)}, which is normally just for
+ * the rows that are visible on screen. The most recently used Row objects are
+ * kept in a small LRU cache, so scrolling back and forth doesn't create new
+ * objects all the time.
+ */
+public final class RowListModel extends GObject implements ListModel<Row> {
+
+    public static Type gtype = Types.register(RowListModel.class);
+
+    private final RowStore store;
+    private final Map<Integer, Row> cache;
+
+    /**
+     * Create a new RowListModel.
+     *
+     * @param store     the RowStore that contains the data
+     * @param cacheSize the maximum number of Row objects to keep alive
+     */
+    public RowListModel(RowStore store, int cacheSize) {
+        this.store = store;
+
+        // A LinkedHashMap in access-order is a simple LRU cache
+        this.cache = new LinkedHashMap<>(cacheSize, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Row> eldest) {
+                return size() > cacheSize;
+            }
+        };
+    }
+
+    /**
+     * The RowStore that contains the data of this model.
+     */
+    public RowStore getStore() {
+        return store;
+    }
+
+    @Override
+    public Type getItemType() {
+        return Row.gtype;
+    }
+
+    @Override
+    public int getNItems() {
+        return store.size();
+    }
+
+    @Override
+    public Row getItem(int position) {
+        if (position < 0 || position >= store.size())
+            return null;
+
+        return cache.computeIfAbsent(position, index -> new Row(store, index));
+    }
+}
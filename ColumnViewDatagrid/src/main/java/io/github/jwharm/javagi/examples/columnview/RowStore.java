@@ -0,0 +1,163 @@
+package io.github.jwharm.javagi.examples.columnview;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.nio.charset.StandardCharsets;
+
+import static java.lang.foreign.ValueLayout.JAVA_BYTE;
+import static java.lang.foreign.ValueLayout.JAVA_LONG;
+
+/**
+ * Columnar, off-heap storage for the cell values of the datagrid.
+ * <p>
+ * All values are stored as NUL-terminated UTF-8 strings in one native memory
+ * segment. A second segment contains the start offset of every cell. No Java
+ * objects are allocated per row, so the Java heap does not grow with the size
+ * of the dataset. {@link RowListModel} turns rows into {@link ColumnViewDatagrid.Row}
+ * objects when they are actually needed.
+ */
+public final class RowStore {
+
+    private final int columns;
+
+    // UTF-8 string data, and the offset of each cell in the data segment.
+    // Every segment is allocated in its own automatic arena, so the garbage
+    // collector releases a segment when it has been replaced by a larger one.
+    private MemorySegment data;
+    private MemorySegment offsets;
+
+    private long dataSize = 0;
+    private int rows = 0;
+
+    /**
+     * Create a new, empty RowStore.
+     *
+     * @param columns     the number of columns in every row
+     * @param rowCapacity the expected number of rows
+     */
+    public RowStore(int columns, int rowCapacity) {
+        this.columns = columns;
+        this.offsets = Arena.ofAuto().allocate(JAVA_LONG, (long) Math.max(rowCapacity, 16) * columns);
+        this.data = Arena.ofAuto().allocate(offsets.byteSize() * 2);
+    }
+
+    /**
+     * The number of columns in every row.
+     */
+    public int columns() {
+        return columns;
+    }
+
+    /**
+     * The number of rows in the store.
+     */
+    public int size() {
+        return rows;
+    }
+
+    /**
+     * Append a row to the store.
+     *
+     * @param values the cell values, one for each column
+     */
+    public void add(String... values) {
+        if (values.length != columns)
+            throw new IllegalArgumentException(
+                    "Expected " + columns + " values, got " + values.length);
+
+        long cell = (long) rows * columns;
+        ensureRowCapacity(rows + 1);
+        for (String value : values) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            ensureDataCapacity(dataSize + bytes.length + 1);
+            MemorySegment.copy(bytes, 0, data, JAVA_BYTE, dataSize, bytes.length);
+            data.set(JAVA_BYTE, dataSize + bytes.length, (byte) 0);
+            offsets.setAtIndex(JAVA_LONG, cell++, dataSize);
+            dataSize += bytes.length + 1;
+        }
+        rows++;
+    }
+
+    /**
+     * Decode the value of one cell into a Java String.
+     *
+     * @param row    the row index
+     * @param column the column index
+     * @return the cell value
+     */
+    public String get(int row, int column) {
+        return data.getString(offset(row, column));
+    }
+
+    /**
+     * The memory address of the NUL-terminated UTF-8 value of a cell. The
+     * address is valid until another row is added to the store.
+     *
+     * @param row    the row index
+     * @param column the column index
+     * @return the memory address of the cell value
+     */
+    public long address(int row, int column) {
+        return data.address() + offset(row, column);
+    }
+
+    /**
+     * Check if the value of a cell contains the requested text. The text is
+     * compared with the UTF-8 data in native memory, so no Java Strings are
+     * created. Letters in the ASCII range are compared case-insensitively.
+     *
+     * @param row    the row index
+     * @param column the column index
+     * @param text   the UTF-8 bytes of the text to find, in lower case
+     * @return whether the cell contains the text
+     */
+    public boolean contains(int row, int column, byte[] text) {
+        long start = offset(row, column);
+        long end = nextOffset(row, column) - 1; // without the NUL terminator
+        outer:
+        for (long pos = start; pos <= end - text.length; pos++) {
+            for (int i = 0; i < text.length; i++)
+                if (toLowerCase(data.get(JAVA_BYTE, pos + i)) != text[i])
+                    continue outer;
+            return true;
+        }
+        return false;
+    }
+
+    private static byte toLowerCase(byte b) {
+        return (b >= 'A' && b <= 'Z') ? (byte) (b + ('a' - 'A')) : b;
+    }
+
+    // Offset of the cell after the requested cell
+    private long nextOffset(int row, int column) {
+        long cell = (long) row * columns + column + 1;
+        return cell == (long) rows * columns ? dataSize : offsets.getAtIndex(JAVA_LONG, cell);
+    }
+
+    // Offset of a cell in the data segment
+    private long offset(int row, int column) {
+        if (row < 0 || row >= rows || column < 0 || column >= columns)
+            throw new IndexOutOfBoundsException("Cell " + row + "," + column);
+        return offsets.getAtIndex(JAVA_LONG, (long) row * columns + column);
+    }
+
+    // Grow the offsets segment (by doubling) to fit the requested number of rows
+    private void ensureRowCapacity(int required) {
+        long cells = (long) required * columns;
+        if (cells * JAVA_LONG.byteSize() <= offsets.byteSize())
+            return;
+        long newCount = Math.max(cells, offsets.byteSize() / JAVA_LONG.byteSize() * 2);
+        var grown = Arena.ofAuto().allocate(JAVA_LONG, newCount);
+        MemorySegment.copy(offsets, 0, grown, 0, offsets.byteSize());
+        offsets = grown;
+    }
+
+    // Grow the data segment (by doubling) to fit the requested number of bytes
+    private void ensureDataCapacity(long required) {
+        if (required <= data.byteSize())
+            return;
+        var grown = Arena.ofAuto().allocate(Math.max(required, data.byteSize() * 2));
+        MemorySegment.copy(data, 0, grown, 0, dataSize);
+        data = grown;
+    }
+}
@@ -0,0 +1,265 @@
+package io.github.jwharm.javagi.examples.columnview;
+
+import io.github.jwharm.javagi.examples.columnview.ColumnViewDatagrid.Row;
+import org.javagi.gobject.types.Types;
+import org.gnome.gio.ListModel;
+import org.gnome.glib.GLib;
+import org.gnome.glib.Type;
+import org.gnome.gobject.GObject;
+
+import java.nio.charset.StandardCharsets;
+import java.text.Collator;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.IntStream;
+
+/**
+ * A sorted and filtered view on a {@link RowListModel}.
+ * <p>
+ * A GtkSortListModel would call a Java comparator through a native upcall
+ * for every comparison, and a GtkFilterListModel would call a Java filter
+ * function for every row. This model does all the work on a background
+ * thread instead, directly on the data in the {@link RowStore}. The result is
+ * an array of row indices, which is published on the main loop. The Row
+ * objects are still created on demand by the RowListModel.
+ * <p>
+ * For every column, the collation keys of the values are calculated once, and
+ * reduced to an int rank per row (equal values have the same rank). The
+ * ranks are cached. A sort order is calculated by packing the rank and the
+ * row index of every row into a long, and sorting the longs with a parallel
+ * primitive sort; for a descending order, the ranks are inverted, so equal
+ * rows stay in their original order. The sort orders are cached as well, so
+ * sorting the same column again is cheap. When the filter text is
+ * extended (for example, while the user is typing), only the rows that
+ * matched the previous filter text are checked again.
+ */
+public final class RowViewModel extends GObject implements ListModel<Row> {
+
+    public static Type gtype = Types.register(RowViewModel.class);
+
+    // Print how long it takes to sort the rows
+    private static final boolean SORT_STATS = Boolean.getBoolean("datagrid.sortstats");
+
+    /**
+     * The requested sort and filter settings.
+     *
+     * @param sortColumn   the column to sort on, or -1 for the original order
+     * @param descending   whether to sort in descending order
+     * @param filterColumn the column to filter on, or -1 for all columns
+     * @param filterText   the text that the rows must contain
+     */
+    private record Settings(int sortColumn, boolean descending, int filterColumn, String filterText) {
+        boolean sameSort(Settings other) {
+            return sortColumn == other.sortColumn && descending == other.descending;
+        }
+        boolean refines(Settings other) {
+            return filterColumn == other.filterColumn
+                    && !other.filterText.isEmpty()
+                    && filterText.contains(other.filterText);
+        }
+    }
+
+    private final RowListModel rows;
+    private final RowStore store;
+
+    // The current view, as published on the main thread.
+    // When null, all rows are shown in their original order.
+    private int[] view = null;
+
+    // The requested settings, and the settings that the background thread
+    // has last calculated a view for
+    private volatile Settings requested = new Settings(-1, false, -1, "");
+    private Settings calculated = requested;
+    private int[] calculatedView = null;
+
+    // Cached ranks of the collation keys for each column, and cached sort
+    // orders for each column and direction (the key is ~column for a
+    // descending order)
+    private final Map<Integer, int[]> ranks = new HashMap<>();
+    private final Map<Integer, int[]> sortOrders = new HashMap<>();
+
+    // All calculations are run on this thread, one at a time
+    private final ExecutorService worker = Executors.newSingleThreadExecutor(runnable -> {
+        var thread = new Thread(runnable, "RowViewModel");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Create a sorted and filtered view on a RowListModel.
+     *
+     * @param rows the model that contains the rows
+     */
+    public RowViewModel(RowListModel rows) {
+        this.rows = rows;
+        this.store = rows.getStore();
+    }
+
+    /**
+     * Sort the rows on the requested column. The sort runs in the background.
+     *
+     * @param column     the column index, or -1 for the original order
+     * @param descending whether to sort in descending order
+     */
+    public void sort(int column, boolean descending) {
+        var s = requested;
+        update(new Settings(column, descending, s.filterColumn, s.filterText));
+    }
+
+    /**
+     * Only show the rows that contain the requested text. The filter runs in
+     * the background.
+     *
+     * @param column the column index, or -1 to search all columns
+     * @param text   the text to search for, or an empty string to show all rows
+     */
+    public void filter(int column, String text) {
+        var s = requested;
+        update(new Settings(s.sortColumn, s.descending, column, text.toLowerCase(Locale.ROOT)));
+    }
+
+    @Override
+    public Type getItemType() {
+        return Row.gtype;
+    }
+
+    @Override
+    public int getNItems() {
+        return view == null ? rows.getNItems() : view.length;
+    }
+
+    @Override
+    public Row getItem(int position) {
+        if (view == null)
+            return rows.getItem(position);
+        if (position < 0 || position >= view.length)
+            return null;
+        return rows.getItem(view[position]);
+    }
+
+    // Schedule a calculation of the view with the requested settings. When
+    // multiple requests are queued, only the most recent one is calculated.
+    private void update(Settings settings) {
+        requested = settings;
+        worker.execute(this::calculate);
+    }
+
+    // Runs on the worker thread
+    private void calculate() {
+        Settings next = requested;
+        if (next.equals(calculated))
+            return;
+
+        boolean sortChanged = !next.sameSort(calculated);
+        int[] order = next.sortColumn < 0 ? null : sortOrder(next.sortColumn, next.descending);
+
+        int[] result;
+        if (next.filterText.isEmpty())
+            result = order;
+        else if (!sortChanged && next.refines(calculated))
+            result = filter(calculatedView, next); // only check the previous matches
+        else if (sortChanged && next.filterColumn == calculated.filterColumn
+                && next.filterText.equals(calculated.filterText))
+            result = reorder(calculatedView, order); // same matches, new order
+        else
+            result = filter(order, next);
+
+        calculated = next;
+        calculatedView = result;
+        publish(result);
+    }
+
+    // Get the sort order for a column from the cache, or calculate it
+    private int[] sortOrder(int column, boolean descending) {
+        return sortOrders.computeIfAbsent(descending ? ~column : column, _ -> sortByRank(column, descending));
+    }
+
+    // Sort all row indices by their rank in a column. The rank and the row
+    // index are packed into one long, so equal ranks are ordered by their
+    // row index, and the sort is stable.
+    private int[] sortByRank(int column, boolean descending) {
+        long start = System.nanoTime();
+        int[] rank = ranks.computeIfAbsent(column, this::rank);
+        long[] packed = new long[rank.length];
+        IntStream.range(0, rank.length).parallel().forEach(i ->
+                packed[i] = (long) (descending ? ~rank[i] & Integer.MAX_VALUE : rank[i]) << 32 | i);
+        Arrays.parallelSort(packed);
+
+        int[] order = new int[packed.length];
+        Arrays.parallelSetAll(order, i -> (int) packed[i]);
+        if (SORT_STATS)
+            System.out.printf("Sorted %d rows on column %d in %d ms%n",
+                    order.length, column, (System.nanoTime() - start) / 1_000_000);
+        return order;
+    }
+
+    // Calculate the rank of the collation key of every value in a column
+    private int[] rank(int column) {
+        // A Collator is not thread-safe, so every thread gets its own copy
+        var collator = ThreadLocal.withInitial(Collator::getInstance);
+        byte[][] keys = new byte[store.size()][];
+        IntStream.range(0, keys.length).parallel().forEach(i ->
+                keys[i] = collator.get().getCollationKey(store.get(i, column)).toByteArray());
+
+        // The rank of a key is its position in the sorted distinct keys
+        byte[][] sorted = keys.clone();
+        Arrays.parallelSort(sorted, Arrays::compareUnsigned);
+        int distinct = 0;
+        for (int i = 0; i < sorted.length; i++)
+            if (distinct == 0 || !Arrays.equals(sorted[i], sorted[distinct - 1]))
+                sorted[distinct++] = sorted[i];
+        byte[][] unique = Arrays.copyOf(sorted, distinct);
+
+        int[] rank = new int[keys.length];
+        IntStream.range(0, keys.length).parallel().forEach(i ->
+                rank[i] = Arrays.binarySearch(unique, keys[i], Arrays::compareUnsigned));
+        return rank;
+    }
+
+    // Keep the rows that match the filter settings, in their current order
+    private int[] filter(int[] candidates, Settings settings) {
+        byte[] text = settings.filterText.getBytes(StandardCharsets.UTF_8);
+        IntStream stream = candidates == null
+                ? IntStream.range(0, store.size())
+                : Arrays.stream(candidates);
+        return stream.parallel()
+                .filter(row -> matches(row, settings.filterColumn, text))
+                .toArray();
+    }
+
+    private boolean matches(int row, int column, byte[] text) {
+        if (column >= 0)
+            return store.contains(row, column, text);
+        for (int c = 0; c < store.columns(); c++)
+            if (store.contains(row, c, text))
+                return true;
+        return false;
+    }
+
+    // Put the rows in a new order, without checking the filter again
+    private int[] reorder(int[] matches, int[] order) {
+        if (order == null) {
+            int[] sorted = matches.clone();
+            Arrays.parallelSort(sorted);
+            return sorted;
+        }
+        var selected = new boolean[store.size()];
+        for (int row : matches)
+            selected[row] = true;
+        return Arrays.stream(order).parallel().filter(row -> selected[row]).toArray();
+    }
+
+    // Replace the current view on the main thread
+    private void publish(int[] result) {
+        GLib.idleAdd(GLib.PRIORITY_DEFAULT_IDLE, () -> {
+            int removed = getNItems();
+            view = result;
+            itemsChanged(0, removed, getNItems());
+            return false;
+        });
+    }
+}
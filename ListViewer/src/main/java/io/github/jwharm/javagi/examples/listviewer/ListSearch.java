@@ -0,0 +1,142 @@
+package io.github.jwharm.javagi.examples.listviewer;
+
+import org.gnome.glib.GLib;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+
+/**
+ * Searches a list of strings in the background.
+ * <p>
+ * A {@link TrigramIndex} of the list is built on a background thread. Search
+ * requests are handled on another background thread, one at a time; when
+ * multiple requests are waiting, only the most recent one is handled. The
+ * result is an array with the indices of the matching strings, which is
+ * passed to a callback on the main loop.
+ * <p>
+ * When the search text is extended (while the user is typing), only the
+ * previous matches are checked. Otherwise, the trigram index is used to find
+ * the candidates. While the index is not yet available, or when the search
+ * text is shorter than three characters, all strings are checked with a
+ * parallel scan.
+ * <p>
+ * The background threads read the list until the ListSearch is closed.
+ */
+public final class ListSearch {
+
+    private final List<String> list;
+    private final Consumer<int[]> onResult;
+
+    private volatile TrigramIndex index = null;
+    private volatile String requested = "";
+
+    // The last handled (case-folded) search text, and its result.
+    // A null result means that all strings match.
+    private volatile String searched = "";
+    private int[] matches = null;
+
+    private final Thread indexer;
+    private volatile boolean closed = false;
+
+    private final ExecutorService worker = Executors.newSingleThreadExecutor(runnable -> {
+        var thread = new Thread(runnable, "ListSearch");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Create a ListSearch and start building the trigram index.
+     *
+     * @param list     the strings to search
+     * @param onResult called on the main loop with the indices of the
+     *                 matching strings, or null when all strings match
+     */
+    public ListSearch(List<String> list, Consumer<int[]> onResult) {
+        this.list = list;
+        this.onResult = onResult;
+        indexer = Thread.ofPlatform().daemon().name("TrigramIndex").start(() -> {
+            long start = System.nanoTime();
+            try {
+                index = TrigramIndex.build(list);
+                if (ListViewer.TIMINGS)
+                    System.out.printf("Built trigram index in %d ms%n",
+                            (System.nanoTime() - start) / 1_000_000);
+            } catch (IllegalStateException e) {
+                System.err.printf("Cannot build trigram index: %s%n", e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Search for strings that contain the text, ignoring case.
+     *
+     * @param text the text to search for, or an empty string to show all strings
+     */
+    public void search(String text) {
+        requested = text;
+        worker.execute(this::run);
+    }
+
+    // Runs on the worker thread
+    private void run() {
+        char[] folded = requested.toCharArray();
+        for (int i = 0; i < folded.length; i++)
+            folded[i] = TrigramIndex.fold(folded[i]);
+        String text = new String(folded);
+        if (text.equals(searched))
+            return;
+
+        long start = System.nanoTime();
+        int[] result;
+        TrigramIndex trigrams = index;
+        if (text.isEmpty())
+            result = null;
+        else if (matches != null && !searched.isEmpty() && text.contains(searched))
+            result = verify(Arrays.stream(matches), folded);
+        else if (trigrams != null && folded.length >= 3)
+            result = verify(Arrays.stream(trigrams.candidates(folded)), folded);
+        else
+            result = verify(IntStream.range(0, list.size()), folded);
+
+        searched = text;
+        matches = result;
+        if (ListViewer.TIMINGS)
+            System.out.printf("Search for \"%s\": %d matches in %d ms%n", text,
+                    result == null ? list.size() : result.length,
+                    (System.nanoTime() - start) / 1_000_000);
+
+        GLib.idleAdd(GLib.PRIORITY_DEFAULT_IDLE, () -> {
+            // Don't publish a result when a newer search has finished already,
+            // or when the search was closed
+            if (!closed && text.equals(searched))
+                onResult.accept(result);
+            return false;
+        });
+    }
+
+    /**
+     * Stop the background threads, and wait until they don't read the list
+     * anymore. A trigram index that is being built is finished first.
+     */
+    public void close() {
+        closed = true;
+        worker.shutdownNow();
+        worker.close();
+        try {
+            indexer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Keep the strings that actually contain the text, in order
+    private int[] verify(IntStream candidates, char[] folded) {
+        return candidates.parallel()
+                .filter(i -> TrigramIndex.contains(list.get(i), folded))
+                .toArray();
+    }
+}
@@ -1,17 +1,39 @@
 package io.github.jwharm.javagi.examples.listviewer;
 
+import io.github.jwharm.javagi.examples.columnview.CellBinder;
 import org.javagi.gio.ListIndexModel;
 import org.gnome.gio.ApplicationFlags;
+import org.gnome.gio.File;
+import org.gnome.glib.GLib;
 import org.gnome.gtk.*;
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
 
 public class ListViewer extends Application {
 
-    private final List<String> list;
-    private final ListIndexModel listIndexModel;
+    // Print the number of bytes that are allocated while binding list items
+    private static final boolean BIND_STATS = Boolean.getBoolean("listviewer.bindstats");
+
+    // Print how long indexing and searching takes
+    static final boolean TIMINGS = Boolean.getBoolean("listviewer.timings");
+
+    // Lines of an opened file that are longer than this (in bytes) are truncated
+    private static final int MAX_LINE_LENGTH = 4096;
+
+    private List<String> list;
+    private ListIndexModel listIndexModel;
+
+    // The indices of the entries that match the search text,
+    // or null when no search text is entered
+    private int[] matches = null;
+
+    // The searches of the open windows
+    private final List<ListSearch> searches = new ArrayList<>();
+
     private final Random rnd = new Random();
 
     public void activate() {
@@ -21,34 +43,119 @@ public class ListViewer extends Application {
 
         var box = new Box(Orientation.VERTICAL, 0);
 
+        // The CellBinder sets the label text with a cached native string,
+        // instead of allocating a new one on every bind.
+        var binder = new CellBinder("gtk_label_set_label", 1024, 64);
+
         SignalListItemFactory factory = new SignalListItemFactory();
         factory.onSetup(object -> {
             ListItem listitem = (ListItem) object;
-            listitem.setChild(new Label(""));
+            Label label = new Label("");
+            listitem.setChild(label);
+            binder.setup(label);
         });
         factory.onBind(object -> {
-            ListItem listitem = (ListItem) object;
-            Label label = (Label) listitem.getChild();
-            ListIndexModel.ListIndex item = (ListIndexModel.ListIndex) listitem.getItem();
-            if (label == null || item == null)
-                return;
-
-            // The ListIndexModel contains ListIndexItems that contain only their index in the list.
-            int index = item.getIndex();
-            
-            // Retrieve the index of the item and show the entry from the ArrayList with random strings.
-            String text = list.get(index);
-            label.setLabel(text);
+            long start = BIND_STATS ? binder.startBind() : 0;
+            bindLabel(binder, (ListItem) object);
+            if (BIND_STATS)
+                binder.endBind(start);
         });
 
+        // The search runs in the background. When the result is available,
+        // a new ListIndexModel with the number of matches is created.
+        var selection = new SingleSelection<>(listIndexModel);
+        var search = new ListSearch(list, result -> {
+            matches = result;
+            selection.setModel(new ListIndexModel(result == null ? list.size() : result.length));
+        });
+        var entry = new SearchEntry();
+        entry.onSearchChanged(() -> search.search(entry.getText()));
+        searches.add(search);
+        box.append(entry);
+
         ScrolledWindow scroll = new ScrolledWindow();
-        ListView lv = new ListView(new SingleSelection<>(listIndexModel), factory);
+        ListView lv = new ListView(selection, factory);
         scroll.setChild(lv);
         scroll.setVexpand(true);
         box.append(scroll);
 
         window.setChild(box);
         window.present();
+
+        if (BIND_STATS)
+            GLib.timeoutAddSeconds(GLib.PRIORITY_DEFAULT, 5, () -> {
+                binder.report();
+                return true;
+            });
+    }
+
+    // Show the entry of a list item in its label
+    private void bindLabel(CellBinder binder, ListItem listitem) {
+        Label label = (Label) listitem.getChild();
+        ListIndexModel.ListIndex item = (ListIndexModel.ListIndex) listitem.getItem();
+        if (label == null || item == null)
+            return;
+
+        // The ListIndexModel contains ListIndexItems that contain only their index in the list.
+        // While searching, the index refers to the array with matching entries.
+        int index = item.getIndex();
+        if (matches != null)
+            index = matches[index];
+
+        // Retrieve the entry from the list only when the label doesn't show
+        // it already: the lines of a file are decoded on every get().
+        if (!binder.isBound(label, index))
+            binder.bind(label, index, list.get(index), Label::setLabel);
+    }
+
+    /*
+     * When a file is opened, the list shows the lines of the file. The file is
+     * memory-mapped, and the index of the lines is built on a background
+     * thread. The application is kept alive with hold() until the index is
+     * ready and the window is shown.
+     */
+    public void open(File[] files, String hint) {
+        String filename = files[0].getPath();
+        if (filename == null) {
+            GLib.printerr("Only local files are supported\n");
+            return;
+        }
+
+        hold();
+        Thread.ofVirtual().start(() -> {
+            try {
+                var lines = MappedLineList.open(Path.of(filename), MAX_LINE_LENGTH);
+                GLib.idleAdd(GLib.PRIORITY_DEFAULT_IDLE, () -> {
+                    closeList();
+                    list = lines;
+                    listIndexModel = new ListIndexModel(lines.size());
+                    activate();
+                    release();
+                    return false;
+                });
+            } catch (IOException e) {
+                GLib.idleAdd(GLib.PRIORITY_DEFAULT_IDLE, () -> {
+                    GLib.printerr("Cannot open %s: %s\n", filename, e.getMessage());
+                    release();
+                    return false;
+                });
+            }
+        });
+    }
+
+    /*
+     * Close the windows that show the current list, and stop their searches.
+     * When the list contains the lines of a file, the file is unmapped after
+     * the background threads of the searches have stopped reading it.
+     */
+    private void closeList() {
+        for (var window : new ArrayList<>(getWindows()))
+            window.destroy();
+        searches.forEach(ListSearch::close);
+        searches.clear();
+        matches = null;
+        if (list instanceof MappedLineList lines)
+            lines.close();
     }
 
     // Generate a short random string
@@ -61,7 +168,7 @@ public class ListViewer extends Application {
     }
 
     public ListViewer(String[] args) {
-        super("io.github.jwharm.javagi.example.ListView", ApplicationFlags.DEFAULT_FLAGS);
+        super("io.github.jwharm.javagi.example.ListView", ApplicationFlags.HANDLES_OPEN);
 
         // Build a list with many (between 500 and 1000) random strings.
         // The list is a normal java ArrayList<String>, nothing special.
@@ -72,6 +179,8 @@ public class ListViewer extends Application {
         listIndexModel = new ListIndexModel(list.size());
 
         onActivate(this::activate);
+        onOpen(this::open);
+        onShutdown(this::closeList);
         run(args);
     }
     
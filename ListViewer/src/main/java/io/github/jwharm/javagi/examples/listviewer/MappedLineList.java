@@ -0,0 +1,173 @@
+package io.github.jwharm.javagi.examples.listviewer;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.stream.IntStream;
+
+import static java.lang.foreign.ValueLayout.JAVA_BYTE;
+import static java.lang.foreign.ValueLayout.JAVA_LONG;
+
+/**
+ * A read-only list with the lines of a text file.
+ * <p>
+ * The file is memory-mapped, so it is not read into the Java heap. When the
+ * file is opened, an index with the start offset of every line is built in
+ * native memory. The file is split into chunks that are scanned in parallel:
+ * first to count the newlines in every chunk, and then to write the offsets
+ * of the lines in each chunk into the index. A line is only decoded into a
+ * Java String when it is requested with {@link #get(int)}.
+ */
+public final class MappedLineList extends AbstractList<String> implements AutoCloseable {
+
+    // Read 8 bytes at once, in a fixed byte order
+    private static final ValueLayout.OfLong WORD =
+            ValueLayout.JAVA_LONG_UNALIGNED.withOrder(ByteOrder.LITTLE_ENDIAN);
+
+    private static final long CHUNK_SIZE = 16 * 1024 * 1024;
+
+    private final Arena arena;
+    private final MemorySegment data;
+    private final MemorySegment lineStarts;
+    private final int size;
+    private final int maxLineLength;
+
+    private MappedLineList(Arena arena, MemorySegment data, MemorySegment lineStarts,
+                           int size, int maxLineLength) {
+        this.arena = arena;
+        this.data = data;
+        this.lineStarts = lineStarts;
+        this.size = size;
+        this.maxLineLength = maxLineLength;
+    }
+
+    /**
+     * Map a file into memory and build the line index.
+     *
+     * @param path          the file to open
+     * @param maxLineLength the maximum number of bytes of a line that are
+     *                      decoded; longer lines are truncated
+     * @return a list with the lines of the file
+     * @throws IOException when the file cannot be read
+     */
+    public static MappedLineList open(Path path, int maxLineLength) throws IOException {
+        Arena arena = Arena.ofShared();
+        try (var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long start = System.nanoTime();
+            var data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size(), arena);
+            int chunks = (int) Math.max(1, (data.byteSize() + CHUNK_SIZE - 1) / CHUNK_SIZE);
+
+            // Count the newlines in every chunk
+            long[] counts = new long[chunks];
+            IntStream.range(0, chunks).parallel().forEach(c ->
+                    counts[c] = scan(data, c * CHUNK_SIZE, chunkEnd(data, c), null, 0));
+
+            // Calculate where the offsets of each chunk are written in the index
+            long[] firstIndex = new long[chunks];
+            long newlines = 0;
+            for (int c = 0; c < chunks; c++) {
+                firstIndex[c] = newlines + 1;
+                newlines += counts[c];
+            }
+
+            // When the last line doesn't end with a newline, it is still a line
+            long size = data.byteSize();
+            boolean unterminated = size > 0 && data.get(JAVA_BYTE, size - 1) != '\n';
+            long lines = newlines + (unterminated ? 1 : 0);
+            if (lines > Integer.MAX_VALUE)
+                throw new IOException("Too many lines: " + lines);
+
+            // Write the start offsets of all lines. There is one extra offset
+            // after the last line, so the length of every line can be calculated.
+            var lineStarts = arena.allocate(JAVA_LONG, lines + 1);
+            lineStarts.setAtIndex(JAVA_LONG, 0, 0);
+            IntStream.range(0, chunks).parallel().forEach(c ->
+                    scan(data, c * CHUNK_SIZE, chunkEnd(data, c), lineStarts, firstIndex[c]));
+            if (unterminated)
+                lineStarts.setAtIndex(JAVA_LONG, lines, size + 1);
+
+            if (ListViewer.TIMINGS)
+                System.out.printf("Indexed %d lines in %d ms%n",
+                        lines, (System.nanoTime() - start) / 1_000_000);
+            return new MappedLineList(arena, data, lineStarts, (int) lines, maxLineLength);
+        } catch (IOException | RuntimeException e) {
+            arena.close();
+            throw e;
+        }
+    }
+
+    private static long chunkEnd(MemorySegment data, int chunk) {
+        return Math.min(data.byteSize(), (chunk + 1) * CHUNK_SIZE);
+    }
+
+    /*
+     * Find the newlines in the range [from, to). When index is not null, the
+     * offset after each newline is written into the index, starting at
+     * position "first". Returns the number of newlines.
+     *
+     * Eight bytes are checked at once: after XOR-ing with a word of newline
+     * characters, newlines are zero bytes, which are found with bit arithmetic
+     * that doesn't overflow into neighbouring bytes.
+     */
+    private static long scan(MemorySegment data, long from, long to, MemorySegment index, long first) {
+        final long NEWLINES = 0x0A0A0A0A0A0A0A0AL;
+        final long LOW_BITS = 0x7F7F7F7F7F7F7F7FL;
+        long count = 0;
+        long pos = from;
+        for (; pos + 8 <= to; pos += 8) {
+            long x = data.get(WORD, pos) ^ NEWLINES;
+            long zeroes = ~(((x & LOW_BITS) + LOW_BITS) | x | LOW_BITS);
+            if (index == null) {
+                count += Long.bitCount(zeroes);
+            } else {
+                while (zeroes != 0) {
+                    long offset = pos + (Long.numberOfTrailingZeros(zeroes) >>> 3) + 1;
+                    index.setAtIndex(JAVA_LONG, first + count++, offset);
+                    zeroes &= zeroes - 1;
+                }
+            }
+        }
+        for (; pos < to; pos++) {
+            if (data.get(JAVA_BYTE, pos) == '\n') {
+                if (index != null)
+                    index.setAtIndex(JAVA_LONG, first + count, pos + 1);
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public String get(int index) {
+        if (index < 0 || index >= size)
+            throw new IndexOutOfBoundsException(index);
+        long start = lineStarts.getAtIndex(JAVA_LONG, index);
+        long end = lineStarts.getAtIndex(JAVA_LONG, index + 1) - 1; // exclude the newline
+        if (end > start && data.get(JAVA_BYTE, end - 1) == '\r')
+            end--;
+        int length = (int) Math.min(end - start, maxLineLength);
+        byte[] bytes = new byte[length];
+        MemorySegment.copy(data, JAVA_BYTE, start, bytes, 0, length);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Unmap the file and release the line index.
+     */
+    @Override
+    public void close() {
+        arena.close();
+    }
+}
@@ -0,0 +1,190 @@
+package io.github.jwharm.javagi.examples.listviewer;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * An index of the trigrams (sequences of three characters) in a list of
+ * strings, to quickly find the strings that contain a search text.
+ * <p>
+ * Every trigram is hashed into one of a fixed number of buckets. For every
+ * bucket, the index contains a sorted list of the strings that contain a
+ * trigram in that bucket. All lists are stored in one int array, in the
+ * "compressed sparse row" format. To find the strings that contain a text,
+ * the lists for the trigrams in the text are intersected. Because different
+ * trigrams can share a bucket, the result can contain strings that don't
+ * actually contain the text, so the caller must check the candidates.
+ * <p>
+ * The index is built in parallel: the strings are split into ranges, the
+ * trigrams in every range are counted, and then every range writes its
+ * entries into its own part of each list.
+ */
+public final class TrigramIndex {
+
+    private static final int BUCKET_BITS = 20;
+    private static final int BUCKETS = 1 << BUCKET_BITS;
+
+    // bucketStart[b] is the position of the first entry of bucket b
+    private final long[] bucketStart;
+    private final int[] entries;
+
+    private TrigramIndex(long[] bucketStart, int[] entries) {
+        this.bucketStart = bucketStart;
+        this.entries = entries;
+    }
+
+    /**
+     * Build a trigram index for a list of strings. This can take a while for
+     * large lists, so it should not be called on the main thread.
+     *
+     * @param list the strings to index
+     * @return the index
+     * @throws IllegalStateException when the index would be too large
+     */
+    public static TrigramIndex build(List<String> list) {
+        int size = list.size();
+        int ranges = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), size / 1024));
+
+        // Count the number of strings with each trigram, per range
+        int[][] counts = new int[ranges][];
+        IntStream.range(0, ranges).parallel().forEach(r -> {
+            int[] rangeCounts = new int[BUCKETS];
+            forEachString(list, rangeStart(r, ranges, size), rangeStart(r + 1, ranges, size),
+                    (_, bucket) -> rangeCounts[bucket]++);
+            counts[r] = rangeCounts;
+        });
+
+        // Calculate where the entries of each range start in each list. The
+        // counts are overwritten with these positions.
+        long[] bucketStart = new long[BUCKETS + 1];
+        long total = 0;
+        for (int b = 0; b < BUCKETS; b++) {
+            bucketStart[b] = total;
+            for (int r = 0; r < ranges; r++) {
+                int count = counts[r][b];
+                counts[r][b] = (int) total;
+                total += count;
+            }
+        }
+        bucketStart[BUCKETS] = total;
+        if (total > Integer.MAX_VALUE - 8)
+            throw new IllegalStateException("Too many trigrams: " + total);
+
+        // Write the entries
+        int[] entries = new int[(int) total];
+        IntStream.range(0, ranges).parallel().forEach(r -> {
+            int[] position = counts[r];
+            forEachString(list, rangeStart(r, ranges, size), rangeStart(r + 1, ranges, size),
+                    (index, bucket) -> entries[position[bucket]++] = index);
+        });
+        return new TrigramIndex(bucketStart, entries);
+    }
+
+    private static int rangeStart(int range, int ranges, int size) {
+        return (int) ((long) size * range / ranges);
+    }
+
+    @FunctionalInterface
+    private interface TrigramConsumer {
+        void accept(int index, int bucket);
+    }
+
+    // Call the consumer once for every distinct trigram bucket in each string
+    private static void forEachString(List<String> list, int from, int to, TrigramConsumer consumer) {
+        int[] buckets = new int[64];
+        for (int i = from; i < to; i++) {
+            String s = list.get(i);
+            if (s.length() < 3)
+                continue;
+            if (buckets.length < s.length())
+                buckets = new int[s.length()];
+            int n = trigrams(s, buckets);
+            Arrays.sort(buckets, 0, n);
+            for (int t = 0; t < n; t++)
+                if (t == 0 || buckets[t] != buckets[t - 1])
+                    consumer.accept(i, buckets[t]);
+        }
+    }
+
+    // Calculate the buckets of all trigrams in a string
+    private static int trigrams(CharSequence s, int[] buckets) {
+        int n = 0;
+        for (int i = 0; i + 3 <= s.length(); i++)
+            buckets[n++] = bucket(fold(s.charAt(i)), fold(s.charAt(i + 1)), fold(s.charAt(i + 2)));
+        return n;
+    }
+
+    private static int bucket(char c1, char c2, char c3) {
+        long h = ((long) c1 << 32 | (long) c2 << 16 | c3) * 0x9E3779B97F4A7C15L;
+        return (int) (h >>> (64 - BUCKET_BITS));
+    }
+
+    /**
+     * Fold a character for case-insensitive comparison.
+     */
+    public static char fold(char c) {
+        return Character.toLowerCase(Character.toUpperCase(c));
+    }
+
+    /**
+     * Check if a string contains a text, ignoring case.
+     *
+     * @param s      the string to search in
+     * @param folded the text to search for, folded with {@link #fold(char)}
+     * @return whether the string contains the text
+     */
+    public static boolean contains(String s, char[] folded) {
+        outer:
+        for (int i = 0; i + folded.length <= s.length(); i++) {
+            for (int j = 0; j < folded.length; j++)
+                if (fold(s.charAt(i + j)) != folded[j])
+                    continue outer;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Find the strings that might contain the text.
+     *
+     * @param folded the text to search for, folded with {@link #fold(char)}
+     *               and at least three characters long
+     * @return the sorted indices of the strings that might contain the text
+     */
+    public int[] candidates(char[] folded) {
+        int[] buckets = new int[folded.length - 2];
+        int n = trigrams(new String(folded), buckets);
+
+        // Intersect the lists, starting with the shortest one
+        Integer[] order = new Integer[n];
+        Arrays.setAll(order, i -> buckets[i]);
+        Arrays.sort(order, (a, b) -> Long.compare(length(a), length(b)));
+        int[] result = Arrays.copyOfRange(entries, (int) bucketStart[order[0]], (int) bucketStart[order[0] + 1]);
+        for (int i = 1; i < n && result.length > 0; i++)
+            result = intersect(result, order[i]);
+        return result;
+    }
+
+    private long length(int bucket) {
+        return bucketStart[bucket + 1] - bucketStart[bucket];
+    }
+
+    // Keep the values that also occur in the list of a bucket. Both are sorted,
+    // and the list is usually much longer, so it is searched with a binary search.
+    private int[] intersect(int[] values, int bucket) {
+        int from = (int) bucketStart[bucket];
+        int to = (int) bucketStart[bucket + 1];
+        int n = 0;
+        for (int value : values) {
+            int pos = Arrays.binarySearch(entries, from, to, value);
+            if (pos >= 0) {
+                values[n++] = value;
+                from = pos + 1;
+            } else {
+                from = -pos - 1;
+            }
+        }
+        return Arrays.copyOf(values, n);
+    }
+}
@@ -0,0 +1,117 @@
+package io.github.jwharm.javagi.examples.logging;
+
+import org.slf4j.ILoggerFactory;
+import org.slf4j.IMarkerFactory;
+import org.slf4j.Logger;
+import org.slf4j.Marker;
+import org.slf4j.event.Level;
+import org.slf4j.event.LoggingEvent;
+import org.slf4j.helpers.AbstractLogger;
+import org.slf4j.helpers.BasicMarkerFactory;
+import org.slf4j.helpers.NOPMDCAdapter;
+import org.slf4j.spi.LoggingEventAware;
+import org.slf4j.spi.MDCAdapter;
+import org.slf4j.spi.SLF4JServiceProvider;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * An SLF4J backend for the log benchmark, that doesn't write anything.
+ * <p>
+ * The benchmark puts the time at which a message was sent at the start of the
+ * message. This backend parses it, and records the latency of the message in
+ * a histogram. With {@code -Dbenchmark.backend=nop}, no level is enabled, so
+ * all messages are discarded by the log writer functions.
+ * <p>
+ * The provider is selected with the {@code slf4j.provider} system property.
+ */
+public final class BenchmarkServiceProvider implements SLF4JServiceProvider {
+
+    static final LatencyHistogram LATENCY = new LatencyHistogram();
+    static final LongAdder RECEIVED = new LongAdder();
+
+    private static final boolean ENABLED = !"nop".equals(System.getProperty("benchmark.backend"));
+
+    private final Map<String, Logger> loggers = new ConcurrentHashMap<>();
+    private final ILoggerFactory loggerFactory = name -> loggers.computeIfAbsent(name, BenchmarkLogger::new);
+    private final IMarkerFactory markerFactory = new BasicMarkerFactory();
+    private final MDCAdapter mdcAdapter = new NOPMDCAdapter();
+
+    @Override
+    public ILoggerFactory getLoggerFactory() {
+        return loggerFactory;
+    }
+
+    @Override
+    public IMarkerFactory getMarkerFactory() {
+        return markerFactory;
+    }
+
+    @Override
+    public MDCAdapter getMDCAdapter() {
+        return mdcAdapter;
+    }
+
+    @Override
+    public String getRequestedApiVersion() {
+        return "2.0.99";
+    }
+
+    @Override
+    public void initialize() {
+    }
+
+    // Read the time stamp at the start of a message, and record the latency
+    private static void record(String message) {
+        long now = System.nanoTime();
+        RECEIVED.increment();
+        if (message == null || message.isEmpty())
+            return;
+
+        int i = message.charAt(0) == '-' ? 1 : 0;
+        long stamp = 0;
+        int digits = 0;
+        for (; i < message.length() && Character.isDigit(message.charAt(i)); i++, digits++)
+            stamp = stamp * 10 + (message.charAt(i) - '0');
+        if (digits > 0)
+            LATENCY.record(now - (message.charAt(0) == '-' ? -stamp : stamp));
+    }
+
+    private static final class BenchmarkLogger extends AbstractLogger implements LoggingEventAware {
+
+        BenchmarkLogger(String name) {
+            this.name = name;
+        }
+
+        // Used by the fluent logging API
+        @Override
+        public void log(LoggingEvent event) {
+            record(event.getMessage());
+        }
+
+        // Used by the classic logging API
+        @Override
+        protected void handleNormalizedLoggingCall(Level level, Marker marker, String message,
+                                                   Object[] arguments, Throwable throwable) {
+            record(message);
+        }
+
+        @Override
+        protected String getFullyQualifiedCallerName() {
+            return null;
+        }
+
+        @Override public boolean isTraceEnabled() { return ENABLED; }
+        @Override public boolean isTraceEnabled(Marker marker) { return ENABLED; }
+        @Override public boolean isDebugEnabled() { return ENABLED; }
+        @Override public boolean isDebugEnabled(Marker marker) { return ENABLED; }
+        @Override public boolean isInfoEnabled() { return ENABLED; }
+        @Override public boolean isInfoEnabled(Marker marker) { return ENABLED; }
+        @Override public boolean isWarnEnabled() { return ENABLED; }
+        @Override public boolean isWarnEnabled(Marker marker) { return ENABLED; }
+        @Override public boolean isErrorEnabled() { return ENABLED; }
+        @Override public boolean isErrorEnabled(Marker marker) { return ENABLED; }
+    }
+}
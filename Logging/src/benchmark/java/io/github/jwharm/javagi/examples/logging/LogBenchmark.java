@@ -0,0 +1,196 @@
+package io.github.jwharm.javagi.examples.logging;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+import org.gnome.glib.GLib;
+import org.gnome.glib.LogLevelFlags;
+import org.gnome.glib.LogWriterFunc;
+
+import javax.management.NotificationEmitter;
+import javax.management.openmbean.CompositeData;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+/**
+ * Measures the throughput and latency of the GLib log writer functions.
+ * <p>
+ * A number of threads log messages with {@code GLib.log}, as fast as possible
+ * or at a fixed rate. Every message goes through the native GLib logging
+ * functions, and back into Java through the log writer function. The SLF4J
+ * backend is {@link BenchmarkServiceProvider}, which records the latency of
+ * every message, or slf4j-simple writing to a file.
+ * <p>
+ * For every log writer function, the benchmark prints the number of messages
+ * per second, latency percentiles, the allocation rate and the GC pauses.
+ * <p>
+ * The benchmark is configured with system properties:
+ * <ul>
+ * <li>{@code benchmark.threads}: the number of threads that log (default 4)
+ * <li>{@code benchmark.messages}: the number of messages per thread (default 100000)
+ * <li>{@code benchmark.rate}: messages per second per thread, or 0 for as
+ *     fast as possible (default 0)
+ * <li>{@code benchmark.writer}: sync, async or all (default all)
+ * <li>{@code benchmark.backend}: counting, nop or file (default counting)
+ * <li>{@code benchmark.file}: the log file of the file backend (default benchmark.log)
+ * <li>{@code benchmark.overflow}: the overflow policy of the async writer,
+ *     BLOCK or DROP (default BLOCK)
+ * </ul>
+ */
+public class LogBenchmark {
+
+    private static final int THREADS = Integer.getInteger("benchmark.threads", 4);
+    private static final int MESSAGES = Integer.getInteger("benchmark.messages", 100_000);
+    private static final int RATE = Integer.getInteger("benchmark.rate", 0);
+    private static final String WRITER = System.getProperty("benchmark.writer", "all");
+    private static final String BACKEND = System.getProperty("benchmark.backend", "counting");
+
+    // GLib.logSetWriterFunc() can only be called once, so it calls the current writer
+    private static volatile LogWriterFunc current;
+
+    // GC pauses during a run
+    private static final AtomicLong pauses = new AtomicLong();
+    private static final AtomicLong pauseMillis = new AtomicLong();
+    private static final AtomicLong maxPauseMillis = new AtomicLong();
+
+    public static void main(String[] args) throws InterruptedException {
+        // Select the SLF4J backend before it is initialized
+        switch (BACKEND) {
+            case "counting", "nop" -> System.setProperty("slf4j.provider", BenchmarkServiceProvider.class.getName());
+            case "file" -> {
+                System.setProperty("slf4j.provider", "org.slf4j.simple.SimpleServiceProvider");
+                System.setProperty("org.slf4j.simpleLogger.logFile", System.getProperty("benchmark.file", "benchmark.log"));
+            }
+            default -> {
+                System.err.printf("Unknown backend: %s%n", BACKEND);
+                return;
+            }
+        }
+
+        // Measure the log writers, not the rate limiter
+        if (System.getProperty("logging.rate") == null)
+            System.setProperty("logging.rate", "0");
+
+        var overflow = AsyncSLF4JLogWriterFunc.OverflowPolicy.valueOf(
+                System.getProperty("benchmark.overflow", "BLOCK"));
+
+        GLib.logSetWriterFunc((flags, fields) -> current.run(flags, fields));
+        monitorGC();
+
+        System.out.printf("%d threads, %d messages per thread, %s, %s backend%n", THREADS, MESSAGES,
+                RATE == 0 ? "no rate limit" : RATE + " messages/s per thread", BACKEND);
+
+        if (!WRITER.equals("async"))
+            run("sync", SLF4JLogWriterFunc::new);
+        if (!WRITER.equals("sync"))
+            run("async", () -> new AsyncSLF4JLogWriterFunc(8192, 1024, overflow));
+    }
+
+    // Warm up, and then measure a log writer function
+    private static void run(String name, Supplier<LogWriterFunc> writer) throws InterruptedException {
+        measure(writer.get(), Math.max(1, MESSAGES / 10));
+        var result = measure(writer.get(), MESSAGES);
+
+        double seconds = result.nanos / 1e9;
+        var latency = BenchmarkServiceProvider.LATENCY;
+        System.out.printf("%-5s %,12.0f msg/s", name, result.received / seconds);
+        if (latency.count() > 0)
+            System.out.printf("  latency p50 %,.1f µs  p99 %,.1f µs  p99.9 %,.1f µs  max %,.1f µs",
+                    latency.percentile(50) / 1e3, latency.percentile(99) / 1e3,
+                    latency.percentile(99.9) / 1e3, latency.max() / 1e3);
+        System.out.printf("  allocated %,.1f MB/s (%,d bytes/msg)  GC pauses %d (%d ms total, %d ms max)%n",
+                result.allocated / seconds / 1e6, result.allocated / Math.max(1, (long) THREADS * MESSAGES),
+                pauses.get(), pauseMillis.get(), maxPauseMillis.get());
+        if (result.dropped > 0)
+            System.out.printf("      %d messages dropped%n", result.dropped);
+    }
+
+    private record Result(long nanos, long received, long allocated, long dropped) {}
+
+    private static Result measure(LogWriterFunc writer, int messages) throws InterruptedException {
+        current = writer;
+        var start = new CountDownLatch(1);
+        var threads = new Thread[THREADS];
+        for (int i = 0; i < THREADS; i++) {
+            String domain = "benchmark-" + i;
+            threads[i] = Thread.ofPlatform().name(domain).start(() -> produce(domain, messages, start));
+        }
+
+        BenchmarkServiceProvider.LATENCY.reset();
+        BenchmarkServiceProvider.RECEIVED.reset();
+        pauses.set(0);
+        pauseMillis.set(0);
+        maxPauseMillis.set(0);
+        long allocated = allocatedBytes();
+        long begin = System.nanoTime();
+
+        start.countDown();
+        for (var thread : threads)
+            thread.join();
+
+        // Wait until the async writer has logged everything
+        long dropped = 0;
+        if (writer instanceof AsyncSLF4JLogWriterFunc async) {
+            async.close();
+            dropped = async.getDropped();
+        }
+
+        long nanos = System.nanoTime() - begin;
+        long received = BACKEND.equals("counting")
+                ? BenchmarkServiceProvider.RECEIVED.sum()
+                : (long) THREADS * messages - dropped;
+        return new Result(nanos, received, allocatedBytes() - allocated, dropped);
+    }
+
+    // Log messages that start with the time at which they should be sent
+    private static void produce(String domain, int messages, CountDownLatch start) {
+        long interval = RATE > 0 ? 1_000_000_000L / RATE : 0;
+        try {
+            start.await();
+        } catch (InterruptedException e) {
+            return;
+        }
+
+        long next = System.nanoTime();
+        for (int i = 0; i < messages; i++) {
+            long stamp = System.nanoTime();
+            if (interval > 0) {
+                // Measure from the planned time, so a stalled thread doesn't hide latency
+                next += interval;
+                while ((stamp = System.nanoTime()) < next) {
+                    if (next - stamp > 100_000)
+                        LockSupport.parkNanos(next - stamp - 50_000);
+                    else
+                        Thread.onSpinWait();
+                }
+                stamp = next;
+            }
+            GLib.log(domain, LogLevelFlags.LEVEL_MESSAGE, "%s benchmark message\n", Long.toString(stamp));
+        }
+    }
+
+    // The total number of bytes that all threads have allocated
+    private static long allocatedBytes() {
+        var threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        return threads.getTotalThreadAllocatedBytes();
+    }
+
+    // Count the GC pauses. Concurrent GC cycles are not pauses, so they are skipped.
+    private static void monitorGC() {
+        for (var gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            if (!(gc instanceof NotificationEmitter emitter)
+                    || gc.getName().contains("Concurrent") || gc.getName().contains("Cycles"))
+                continue;
+            emitter.addNotificationListener((notification, _) -> {
+                if (!notification.getType().equals(GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION))
+                    return;
+                var info = GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+                long millis = info.getGcInfo().getDuration();
+                pauses.incrementAndGet();
+                pauseMillis.addAndGet(millis);
+                maxPauseMillis.accumulateAndGet(millis, Math::max);
+            }, null, null);
+        }
+    }
+}
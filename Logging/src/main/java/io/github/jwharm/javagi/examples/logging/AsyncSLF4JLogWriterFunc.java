@@ -0,0 +1,310 @@
+package io.github.jwharm.javagi.examples.logging;
+
+import org.gnome.glib.GLib;
+import org.gnome.glib.LogField;
+import org.gnome.glib.LogLevelFlags;
+import org.gnome.glib.LogWriterFunc;
+import org.gnome.glib.LogWriterOutput;
+import org.slf4j.Logger;
+import org.slf4j.event.Level;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * GLogWriteFunc implementation that outputs GLib logging to SLF4J on a
+ * background thread.
+ * <p>
+ * To be used with {@link GLib#logSetWriterFunc}.
+ * <p>
+ * The thread that logs a message only copies the message into a slot of a
+ * preallocated ring buffer, and returns. Messages with a level that is not
+ * enabled for their domain are discarded before they are copied. A consumer thread takes
+ * the messages from the ring buffer in batches and logs them with SLF4J.
+ * Native threads that log a lot (like GStreamer or WebKit threads) therefore
+ * never wait for the Java logging backend.
+ * <p>
+ * Multiple threads can log at the same time without locking. A thread claims
+ * a slot by incrementing the write position with a compare-and-set, and
+ * publishes the slot by updating its sequence number (with release
+ * semantics) after the message has been copied. The consumer reads the
+ * sequence number (with acquire semantics) to know when the slot is ready.
+ * <p>
+ * When the ring buffer is full, the message is either dropped or the logging
+ * thread waits until there is room, depending on the {@link OverflowPolicy}.
+ * Dropped and truncated messages are counted. Like in
+ * {@link SLF4JLogWriterFunc}, every domain has a rate limit, and suppressed
+ * messages are counted per domain.
+ * <p>
+ * Unlike {@link SLF4JLogWriterFunc}, only the MESSAGE field is forwarded to
+ * SLF4J. The other fields (like CODE_FILE, CODE_LINE, CODE_FUNC and custom
+ * fields from {@code g_log_structured}) are not copied into the ring buffer,
+ * so they are not added to the log event as key-value pairs.
+ * <p>
+ * Fatal messages (with level {@code G_LOG_LEVEL_ERROR} or the
+ * {@code G_LOG_FLAG_FATAL} flag) are logged immediately, with all their
+ * fields, because GLib aborts the program after they have been written.
+ * <p>
+ * When the writer is closed, a flag is set in the write position, so no slot
+ * can be claimed anymore. The consumer thread then logs the messages in all
+ * slots that were claimed before, and waits for slots that are still being
+ * copied.
+ * <p>
+ * Libraries <strong>must not</strong> use this class — only programs are
+ * allowed to install a GLib log writer function, as there must be a single,
+ * central point where log messages are formatted and outputted.
+ */
+public final class AsyncSLF4JLogWriterFunc implements LogWriterFunc, AutoCloseable {
+
+    /**
+     * What to do when a message is logged while the ring buffer is full.
+     */
+    public enum OverflowPolicy {
+        /** Drop the message */
+        DROP,
+        /** Wait until the consumer has made room */
+        BLOCK
+    }
+
+    private static final int BATCH_SIZE = 256;
+
+    // Set in the write position when the writer is closed
+    private static final long CLOSED = 1L << 62;
+    private static final Level[] LEVELS = Level.values();
+
+    private final int capacity;
+    private final int mask;
+    private final OverflowPolicy policy;
+
+    // The preallocated slots
+    private final AtomicLongArray sequences;
+    private final int[] levels;
+    private final Logger[] loggers;
+    private final long[] suppressed;
+    private final byte[][] messages;
+    private final int[] messageLengths;
+
+    // The next position to write (with the CLOSED flag), and the next
+    // position to read
+    private final AtomicLong tail = new AtomicLong();
+    private long head = 0;
+
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder truncated = new LongAdder();
+
+    private final SLF4JLogWriterFunc direct = new SLF4JLogWriterFunc();
+    private final Domains domains = new Domains();
+    private final Thread consumer;
+    private volatile boolean waiting = false;
+    private volatile boolean closed = false;
+
+    /**
+     * Create an AsyncSLF4JLogWriterFunc with a ring buffer of 8192 messages of
+     * at most 1024 bytes, that drops messages when the ring buffer is full.
+     */
+    public AsyncSLF4JLogWriterFunc() {
+        this(8192, 1024, OverflowPolicy.DROP);
+    }
+
+    /**
+     * Create an AsyncSLF4JLogWriterFunc and start the consumer thread.
+     *
+     * @param capacity         the number of messages in the ring buffer
+     *                         (rounded up to a power of two)
+     * @param maxMessageLength the maximum length of a message in bytes;
+     *                         longer messages are truncated
+     * @param policy           what to do when the ring buffer is full
+     */
+    public AsyncSLF4JLogWriterFunc(int capacity, int maxMessageLength, OverflowPolicy policy) {
+        this.capacity = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.mask = this.capacity - 1;
+        this.policy = policy;
+
+        sequences = new AtomicLongArray(this.capacity);
+        levels = new int[this.capacity];
+        loggers = new Logger[this.capacity];
+        suppressed = new long[this.capacity];
+        messages = new byte[this.capacity][maxMessageLength];
+        messageLengths = new int[this.capacity];
+
+        // A slot is free for position p when its sequence number is p
+        for (int i = 0; i < this.capacity; i++)
+            sequences.set(i, i);
+
+        consumer = Thread.ofPlatform().daemon().name("SLF4JLogWriter").start(this::drain);
+    }
+
+    @Override
+    public LogWriterOutput run(Set<LogLevelFlags> flags, LogField[] logFields) {
+        if (GLibLevel.isFatal(flags))
+            return direct.run(flags, logFields);
+
+        // Messages that this writer doesn't handle must not take a token
+        var messageField = LogFields.find(logFields, LogFields.MESSAGE);
+        if (messageField == null || closed)
+            return LogWriterOutput.UNHANDLED;
+
+        // Discard disabled and rate-limited messages before decoding anything
+        GLibLevel level = GLibLevel.of(flags);
+        Domain domain = domains.get(LogFields.find(logFields, LogFields.GLIB_DOMAIN));
+        if (!(domain.isEnabled(level) && domain.acquire()))
+            return LogWriterOutput.HANDLED;
+
+        // Claim a slot
+        long pos = claim();
+        if (pos < 0) {
+            dropped.increment();
+            return LogWriterOutput.HANDLED;
+        }
+
+        // Copy the fields into the slot
+        int slot = (int) (pos & mask);
+        levels[slot] = level.level.ordinal();
+        loggers[slot] = domain.logger;
+        suppressed[slot] = domain.takeUnreported();
+        int length = LogFields.copyValue(messageField, messages[slot]);
+        if (length < 0) {
+            truncated.increment();
+            length = messages[slot].length;
+        }
+        messageLengths[slot] = length;
+
+        // Publish the slot
+        sequences.setRelease(slot, pos + 1);
+        if (waiting)
+            LockSupport.unpark(consumer);
+        return LogWriterOutput.HANDLED;
+    }
+
+    // Claim the next position in the ring buffer. Returns -1 when the buffer
+    // is full and the message must be dropped.
+    private long claim() {
+        int spins = 0;
+        long pos = tail.get();
+        while (true) {
+            if ((pos & CLOSED) != 0)
+                return -1;
+            long sequence = sequences.getAcquire((int) (pos & mask));
+            long difference = sequence - pos;
+            if (difference == 0) {
+                if (tail.compareAndSet(pos, pos + 1))
+                    return pos;
+            } else if (difference < 0) {
+                // The ring buffer is full
+                if (policy == OverflowPolicy.DROP || Thread.currentThread() == consumer || closed)
+                    return -1;
+                if (spins++ < 100)
+                    Thread.onSpinWait();
+                else
+                    LockSupport.parkNanos(10_000);
+            }
+            pos = tail.get();
+        }
+    }
+
+    // Runs on the consumer thread
+    private void drain() {
+        while (true) {
+            int count = 0;
+            while (count < BATCH_SIZE && consume())
+                count++;
+            if (count > 0)
+                continue;
+
+            // After close, stop when every claimed slot has been logged. A
+            // slot that was claimed but not yet published is being copied.
+            if (closed) {
+                if (head == (tail.get() & ~CLOSED))
+                    return;
+                Thread.onSpinWait();
+                continue;
+            }
+
+            // Nothing to do: wait until a producer wakes us up. The wait is
+            // limited, so a missed wake-up only delays the message a little.
+            waiting = true;
+            if (!ready())
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+            waiting = false;
+        }
+    }
+
+    // Check if the next slot has been published
+    private boolean ready() {
+        return sequences.getAcquire((int) (head & mask)) == head + 1;
+    }
+
+    // Log the message in the next slot, and free the slot
+    private boolean consume() {
+        if (!ready())
+            return false;
+
+        int slot = (int) (head & mask);
+        Logger logger = loggers[slot];
+        String message = new String(messages[slot], 0, messageLengths[slot], StandardCharsets.UTF_8);
+        Level level = LEVELS[levels[slot]];
+        long count = suppressed[slot];
+
+        sequences.setRelease(slot, head + capacity);
+        head++;
+
+        if (count > 0)
+            logger.warn("Suppressed {} messages", count);
+        logger.atLevel(level).log(message);
+        return true;
+    }
+
+    /**
+     * The number of messages that were dropped because the ring buffer was full.
+     */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * The number of messages that were truncated because they were too long.
+     */
+    public long getTruncated() {
+        return truncated.sum();
+    }
+
+    /**
+     * The number of messages that were suppressed by the rate limiter, for
+     * every GLib log domain.
+     */
+    public Map<String, Long> getSuppressed() {
+        return domains.getSuppressed();
+    }
+
+    /**
+     * Check again which log levels are enabled for every GLib log domain.
+     * Call this after the configuration of the SLF4J backend has changed.
+     */
+    public void refreshLevels() {
+        domains.refresh();
+    }
+
+    /**
+     * Log the remaining messages and stop the consumer thread. Messages that
+     * are logged after this are not handled.
+     */
+    @Override
+    public void close() {
+        long pos = tail.get();
+        while (!tail.compareAndSet(pos, pos | CLOSED))
+            pos = tail.get();
+        closed = true;
+        LockSupport.unpark(consumer);
+        try {
+            consumer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
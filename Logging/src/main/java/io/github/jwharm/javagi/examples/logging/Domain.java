@@ -0,0 +1,108 @@
+package io.github.jwharm.javagi.examples.logging;
+
+import org.slf4j.Logger;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A GLib log domain: the SLF4J Logger, the log levels that are enabled, and
+ * a rate limiter.
+ * <p>
+ * The enabled levels are computed when the domain is created, and again when
+ * {@link #refresh()} is called, so a message for a disabled level is
+ * discarded without calling the SLF4J backend.
+ * <p>
+ * The rate limiter is a token bucket, implemented with the generic cell rate
+ * algorithm: instead of a number of tokens, it keeps the time at which the
+ * bucket would be full again. A message is allowed when that time is less
+ * than one burst ahead of now. The time is updated with a compare-and-set, so
+ * the rate limiter doesn't lock.
+ */
+final class Domain {
+
+    final String name;
+    final Logger logger;
+
+    // One bit for every GLibLevel that is enabled
+    private volatile int enabled;
+
+    // The rate limiter: the time between messages and the allowed burst, in nanoseconds
+    private final long interval;
+    private final long tolerance;
+    private final AtomicLong full = new AtomicLong(System.nanoTime());
+
+    // Suppressed messages: the total, and the number that hasn't been reported yet
+    private final LongAdder suppressed = new LongAdder();
+    private final AtomicLong unreported = new AtomicLong();
+
+    /**
+     * Create a Domain.
+     *
+     * @param name   the name of the domain
+     * @param logger the Logger for the domain
+     * @param rate   the number of messages per second that are allowed, or 0
+     *               to allow all messages
+     * @param burst  the number of messages that are allowed at once
+     */
+    Domain(String name, Logger logger, int rate, int burst) {
+        this.name = name;
+        this.logger = logger;
+        this.interval = rate <= 0 ? 0 : 1_000_000_000L / rate;
+        this.tolerance = interval * Math.max(0, burst - 1);
+        refresh();
+    }
+
+    /**
+     * Check again which levels are enabled in the SLF4J backend.
+     */
+    void refresh() {
+        int mask = 0;
+        for (var level : GLibLevel.values())
+            if (logger.isEnabledForLevel(level.level))
+                mask |= 1 << level.ordinal();
+        enabled = mask;
+    }
+
+    boolean isEnabled(GLibLevel level) {
+        return (enabled & (1 << level.ordinal())) != 0;
+    }
+
+    /**
+     * Take a token from the bucket.
+     *
+     * @return true when the message can be logged, false when it must be
+     *         suppressed
+     */
+    boolean acquire() {
+        if (interval == 0)
+            return true;
+        long now = System.nanoTime();
+        while (true) {
+            long current = full.get();
+            long start = current - now > 0 ? current : now;
+            if (start - now > tolerance) {
+                suppressed.increment();
+                unreported.incrementAndGet();
+                return false;
+            }
+            if (full.compareAndSet(current, start + interval))
+                return true;
+        }
+    }
+
+    /**
+     * Get the number of messages that were suppressed since the last call,
+     * and reset it.
+     */
+    long takeUnreported() {
+        return unreported.get() == 0 ? 0 : unreported.getAndSet(0);
+    }
+
+    /**
+     * The total number of messages that were suppressed by the rate limiter.
+     */
+    long getSuppressed() {
+        return suppressed.sum();
+    }
+}
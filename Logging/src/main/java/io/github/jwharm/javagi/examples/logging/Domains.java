@@ -0,0 +1,136 @@
+package io.github.jwharm.javagi.examples.logging;
+
+import org.gnome.glib.LogField;
+import org.slf4j.LoggerFactory;
+
+import java.lang.foreign.MemorySegment;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static java.lang.foreign.ValueLayout.JAVA_BYTE;
+
+/**
+ * Caches the {@link Domain} (with the SLF4J Logger, enabled levels and rate
+ * limiter) for every GLib log domain.
+ * <p>
+ * The domain is looked up with the bytes of the GLIB_DOMAIN field in native
+ * memory, so finding a domain that was seen before doesn't decode it into a
+ * Java String. The cache is a small open-addressing hash table. It is read
+ * without locking; a new domain is added by replacing the table with a larger
+ * copy.
+ * <p>
+ * The rate limit is set with the system properties {@code logging.rate} (the
+ * number of messages per second for every domain, default 1000, or 0 for no
+ * limit) and {@code logging.burst} (default 100).
+ */
+final class Domains {
+
+    /** The domain of messages without a GLIB_DOMAIN field */
+    static final String DEFAULT_DOMAIN = "GLib";
+
+    private static final int RATE = Integer.getInteger("logging.rate", 1000);
+    private static final int BURST = Integer.getInteger("logging.burst", 100);
+
+    private record Entry(byte[] name, int hash, Domain domain) {}
+
+    private volatile Entry[] table = new Entry[64];
+    private int size = 0;
+    private final Domain defaultDomain = create(DEFAULT_DOMAIN);
+
+    private static Domain create(String name) {
+        return new Domain(name, LoggerFactory.getLogger(name), RATE, BURST);
+    }
+
+    /**
+     * Get the Domain for a GLIB_DOMAIN field.
+     *
+     * @param domainField the GLIB_DOMAIN field, or null
+     * @return the Domain
+     */
+    Domain get(LogField domainField) {
+        if (domainField == null)
+            return defaultDomain;
+
+        MemorySegment value = LogFields.value(domainField);
+        long length = value.byteSize();
+        int hash = hash(value, length);
+
+        Entry[] entries = table;
+        int mask = entries.length - 1;
+        for (int i = hash & mask; entries[i] != null; i = (i + 1) & mask) {
+            var entry = entries[i];
+            if (entry.hash == hash && equals(entry.name, value, length))
+                return entry.domain;
+        }
+        return add(value, hash);
+    }
+
+    // Add a new domain. This only happens once for every domain.
+    private synchronized Domain add(MemorySegment value, int hash) {
+        byte[] name = value.toArray(JAVA_BYTE);
+        for (var entry : table)
+            if (entry != null && Arrays.equals(entry.name, name))
+                return entry.domain;
+
+        var domain = create(LogFields.string(name));
+        Entry[] entries = size * 2 >= table.length ? new Entry[table.length * 2] : table.clone();
+        if (entries.length != table.length)
+            for (var entry : table)
+                if (entry != null)
+                    insert(entries, entry);
+        insert(entries, new Entry(name, hash, domain));
+        size++;
+        table = entries;
+        return domain;
+    }
+
+    private static void insert(Entry[] entries, Entry entry) {
+        int mask = entries.length - 1;
+        int i = entry.hash & mask;
+        while (entries[i] != null)
+            i = (i + 1) & mask;
+        entries[i] = entry;
+    }
+
+    // FNV-1a hash of the bytes in native memory
+    private static int hash(MemorySegment value, long length) {
+        int hash = 0x811C9DC5;
+        for (long i = 0; i < length; i++)
+            hash = (hash ^ value.get(JAVA_BYTE, i)) * 0x01000193;
+        return hash ^ (hash >>> 16);
+    }
+
+    private static boolean equals(byte[] name, MemorySegment value, long length) {
+        if (name.length != length)
+            return false;
+        for (int i = 0; i < name.length; i++)
+            if (name[i] != value.get(JAVA_BYTE, i))
+                return false;
+        return true;
+    }
+
+    /**
+     * Check again which levels are enabled for every domain. Call this after
+     * the configuration of the SLF4J backend has changed.
+     */
+    void refresh() {
+        defaultDomain.refresh();
+        for (var entry : table)
+            if (entry != null)
+                entry.domain.refresh();
+    }
+
+    /**
+     * The number of messages that were suppressed by the rate limiter, for
+     * every domain.
+     */
+    Map<String, Long> getSuppressed() {
+        var result = new TreeMap<String, Long>();
+        result.put(defaultDomain.name, defaultDomain.getSuppressed());
+        for (var entry : table)
+            if (entry != null)
+                result.merge(entry.domain.name, entry.domain.getSuppressed(), Long::sum);
+        return result;
+    }
+}
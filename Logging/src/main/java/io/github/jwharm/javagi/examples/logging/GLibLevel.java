@@ -0,0 +1,48 @@
+package io.github.jwharm.javagi.examples.logging;
+
+import org.gnome.glib.LogLevelFlags;
+import org.slf4j.event.Level;
+
+import java.util.Set;
+
+/**
+ * The GLib log levels, from most to least severe, and the SLF4J level that
+ * they are logged with.
+ */
+enum GLibLevel {
+    ERROR(LogLevelFlags.LEVEL_ERROR, Level.ERROR),
+    CRITICAL(LogLevelFlags.LEVEL_CRITICAL, Level.ERROR),
+    WARNING(LogLevelFlags.LEVEL_WARNING, Level.WARN),
+    MESSAGE(LogLevelFlags.LEVEL_MESSAGE, Level.INFO),
+    INFO(LogLevelFlags.LEVEL_INFO, Level.INFO),
+    DEBUG(LogLevelFlags.LEVEL_DEBUG, Level.DEBUG);
+
+    private static final GLibLevel[] VALUES = values();
+
+    final LogLevelFlags flag;
+    final Level level;
+
+    GLibLevel(LogLevelFlags flag, Level level) {
+        this.flag = flag;
+        this.level = level;
+    }
+
+    /**
+     * Get the most severe log level in the flags. The flags G_LOG_FLAG_FATAL
+     * and G_LOG_FLAG_RECURSION are ignored. Messages with only user-defined
+     * levels are logged as debug messages.
+     */
+    static GLibLevel of(Set<LogLevelFlags> flags) {
+        for (var level : VALUES)
+            if (flags.contains(level.flag))
+                return level;
+        return DEBUG;
+    }
+
+    /**
+     * Check if GLib will abort the program after the message is written.
+     */
+    static boolean isFatal(Set<LogLevelFlags> flags) {
+        return flags.contains(LogLevelFlags.LEVEL_ERROR) || flags.contains(LogLevelFlags.FLAG_FATAL);
+    }
+}
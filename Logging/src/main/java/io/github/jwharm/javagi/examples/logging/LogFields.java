@@ -0,0 +1,143 @@
+package io.github.jwharm.javagi.examples.logging;
+
+import org.gnome.glib.LogField;
+
+import java.lang.foreign.MemoryLayout;
+import java.lang.foreign.MemorySegment;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static java.lang.foreign.ValueLayout.ADDRESS;
+import static java.lang.foreign.ValueLayout.JAVA_BYTE;
+
+/**
+ * Helper functions to read GLogField structs without decoding them into Java
+ * Strings. Keys are compared byte by byte in native memory, and values are
+ * copied directly into a byte array.
+ */
+final class LogFields {
+
+    static final byte[] GLIB_DOMAIN = bytes("GLIB_DOMAIN");
+    static final byte[] MESSAGE = bytes("MESSAGE");
+
+    // The keys that GLib itself uses. These are returned by key() without
+    // decoding them again for every message.
+    private static final String[] KNOWN_KEYS = {
+            "MESSAGE", "GLIB_DOMAIN", "PRIORITY", "CODE_FILE", "CODE_LINE",
+            "CODE_FUNC", "GLIB_OLD_LOG_API", "ERRNO", "SYSLOG_IDENTIFIER"
+    };
+    private static final byte[][] KNOWN_KEY_BYTES =
+            Arrays.stream(KNOWN_KEYS).map(LogFields::bytes).toArray(byte[][]::new);
+
+    // The offset of the "key" pointer in a GLogField
+    private static final long KEY_OFFSET =
+            LogField.getMemoryLayout().byteOffset(MemoryLayout.PathElement.groupElement("key"));
+
+    private LogFields() {
+    }
+
+    static byte[] bytes(String key) {
+        return key.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Check if the key of a field is equal to the NUL-terminated string in
+     * native memory. The key is read one byte at a time, and never beyond the
+     * NUL terminator.
+     */
+    static boolean keyEquals(LogField field, byte[] key) {
+        var k = field.handle().get(ADDRESS, KEY_OFFSET).reinterpret(key.length + 1);
+        for (int i = 0; i < key.length; i++)
+            if (k.get(JAVA_BYTE, i) != key[i])
+                return false;
+        return k.get(JAVA_BYTE, key.length) == 0;
+    }
+
+    /**
+     * Find the field with the requested key.
+     *
+     * @return the field, or null when it is not found
+     */
+    static LogField find(LogField[] fields, byte[] key) {
+        for (var field : fields)
+            if (keyEquals(field, key))
+                return field;
+        return null;
+    }
+
+    /**
+     * Copy the value of a field into a byte array. When the value is longer
+     * than the array, it is truncated.
+     *
+     * @return the number of bytes that were copied, or -1 when the value is
+     *         longer than the array
+     */
+    static int copyValue(LogField field, byte[] dest) {
+        long length = field.readLength();
+        MemorySegment value = field.readValue();
+
+        // A known length
+        if (length >= 0) {
+            int n = (int) Math.min(length, dest.length);
+            MemorySegment.copy(value.reinterpret(n), JAVA_BYTE, 0, dest, 0, n);
+            return n == length ? n : -1;
+        }
+
+        // A NUL-terminated string: copy until the NUL terminator
+        value = value.reinterpret(dest.length + 1);
+        for (int i = 0; i < dest.length; i++) {
+            byte b = value.get(JAVA_BYTE, i);
+            if (b == 0)
+                return i;
+            dest[i] = b;
+        }
+        return value.get(JAVA_BYTE, dest.length) == 0 ? dest.length : -1;
+    }
+
+    /**
+     * Read the key of a field. The keys that GLib uses are returned as
+     * constants; other keys are decoded.
+     */
+    static String key(LogField field) {
+        for (int i = 0; i < KNOWN_KEYS.length; i++)
+            if (keyEquals(field, KNOWN_KEY_BYTES[i]))
+                return KNOWN_KEYS[i];
+        var key = field.handle().get(ADDRESS, KEY_OFFSET);
+        return string(key.reinterpret(strlen(key)));
+    }
+
+    /**
+     * Get the value of a field as a memory segment with the exact length of
+     * the value. For a NUL-terminated string, the terminator is not included.
+     */
+    static MemorySegment value(LogField field) {
+        long length = field.readLength();
+        MemorySegment value = field.readValue();
+        return value.reinterpret(length >= 0 ? length : strlen(value));
+    }
+
+    /**
+     * Decode the value of a field as an UTF-8 string. Invalid UTF-8 sequences
+     * (in binary values) are replaced.
+     */
+    static String string(LogField field) {
+        return string(value(field));
+    }
+
+    static String string(MemorySegment bytes) {
+        return new String(bytes.toArray(JAVA_BYTE), StandardCharsets.UTF_8);
+    }
+
+    static String string(byte[] bytes) {
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // Find the NUL terminator of a string in native memory, one byte at a time
+    private static long strlen(MemorySegment string) {
+        var s = string.reinterpret(Long.MAX_VALUE);
+        long length = 0;
+        while (s.get(JAVA_BYTE, length) != 0)
+            length++;
+        return length;
+    }
+}
@@ -10,8 +10,19 @@ import static org.gnome.glib.LogLevelFlags.*;
 public class Logging {
 
     public static void main(String[] args) {
-        GLib.logSetWriterFunc(new SLF4JLogWriterFunc());
+        // With -Dlogging.async=true, the messages are logged on a background thread
+        if (Boolean.getBoolean("logging.async")) {
+            try (var writer = new AsyncSLF4JLogWriterFunc()) {
+                GLib.logSetWriterFunc(writer);
+                logMessages();
+            }
+        } else {
+            GLib.logSetWriterFunc(new SLF4JLogWriterFunc());
+            logMessages();
+        }
+    }
 
+    private static void logMessages() {
         GLib.log("logging-example", LEVEL_MESSAGE, "Hello %s\n", "world");
         GLib.log("logging-example", LEVEL_MESSAGE, "%d + %d = %d\n", 1, 1, 2);
         GLib.log("logging-example", LEVEL_WARNING, "This is a warning\n");
@@ -5,10 +5,8 @@ import org.gnome.glib.LogField;
 import org.gnome.glib.LogLevelFlags;
 import org.gnome.glib.LogWriterFunc;
 import org.gnome.glib.LogWriterOutput;
-import org.slf4j.LoggerFactory;
-import org.slf4j.event.Level;
 
-import java.lang.foreign.MemorySegment;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -16,57 +14,70 @@ import java.util.Set;
  * <p>
  * To be used with {@link GLib#logSetWriterFunc}.
  * <p>
+ * The GLIB_DOMAIN field is used as the logger name, and the MESSAGE field as
+ * the message. All other fields (like CODE_FILE, CODE_LINE, CODE_FUNC and
+ * custom fields from {@code g_log_structured}) are added to the log event as
+ * key-value pairs.
+ * <p>
+ * The fields are read directly from native memory: keys are compared byte by
+ * byte, and the Logger for a domain is cached. The enabled levels of a domain
+ * are computed once, so when the log level is not enabled for the domain, the
+ * message is discarded before any field is decoded into a Java String.
+ * <p>
+ * To protect against floods of log messages, every domain has a rate limit.
+ * Messages that exceed it are suppressed and counted; the number of
+ * suppressed messages is logged with the next message that is allowed.
+ * Fatal messages are never suppressed.
+ * <p>
  * Libraries <strong>must not</strong> use this class — only programs are
  * allowed to install a GLib log writer function, as there must be a single,
  * central point where log messages are formatted and outputted.
  */
 public final class SLF4JLogWriterFunc implements LogWriterFunc {
 
+    private final Domains domains = new Domains();
+
     @Override
     public LogWriterOutput run(Set<LogLevelFlags> flags, LogField[] logFields) {
         try {
-            String domain = readStringFromKey("GLIB_DOMAIN", logFields);
-            String message = readStringFromKey("MESSAGE", logFields);
-            Level level = convertLevel(flags.iterator().next());
-            LoggerFactory.getLogger(domain).atLevel(level).log(message);
+            // Discard disabled and rate-limited messages before decoding anything
+            GLibLevel level = GLibLevel.of(flags);
+            boolean fatal = GLibLevel.isFatal(flags);
+            Domain domain = domains.get(LogFields.find(logFields, LogFields.GLIB_DOMAIN));
+            if (!fatal && !(domain.isEnabled(level) && domain.acquire()))
+                return LogWriterOutput.HANDLED;
+
+            long suppressed = domain.takeUnreported();
+            if (suppressed > 0)
+                domain.logger.warn("Suppressed {} messages", suppressed);
+
+            var event = domain.logger.atLevel(level.level);
+            for (var field : logFields) {
+                if (LogFields.keyEquals(field, LogFields.MESSAGE))
+                    event.setMessage(LogFields.string(field));
+                else
+                    event.addKeyValue(LogFields.key(field), LogFields.string(field));
+            }
+            event.log();
             return LogWriterOutput.HANDLED;
         } catch (Exception e) {
             return LogWriterOutput.UNHANDLED;
         }
     }
 
-    // Map GLib log level to SLF4J log level
-    private static Level convertLevel(LogLevelFlags flag) {
-        return switch (flag) {
-            case LEVEL_CRITICAL, LEVEL_ERROR -> Level.ERROR;
-            case LEVEL_WARNING -> Level.WARN;
-            case LEVEL_MESSAGE, LEVEL_INFO -> Level.INFO;
-            case LEVEL_DEBUG -> Level.DEBUG;
-            default -> throw new IllegalArgumentException(
-                    "Unsupported LogLevelFlag: " + flag);
-        };
+    /**
+     * The number of messages that were suppressed by the rate limiter, for
+     * every GLib log domain.
+     */
+    public Map<String, Long> getSuppressed() {
+        return domains.getSuppressed();
     }
 
-    // Find the field with the requested key and return the String value
-    private static String readStringFromKey(String key, LogField[] logFields) {
-        for (var field : logFields) {
-            String k = field.readKey();
-            if (k.equals(key))
-                return readString(field);
-        }
-        throw new IllegalArgumentException("Cannot find key " + key);
-    }
-
-    // Read a String value from a field
-    private static String readString(LogField field) {
-        long length = field.readLength();
-        MemorySegment value = field.readValue();
-        if (length == -1) {
-            value = value.reinterpret(Long.MAX_VALUE);
-            return value.getString(0);
-        } else {
-            value = value.reinterpret(length);
-            return value.getString(0);
-        }
+    /**
+     * Check again which log levels are enabled for every GLib log domain.
+     * Call this after the configuration of the SLF4J backend has changed.
+     */
+    public void refreshLevels() {
+        domains.refresh();
     }
 }
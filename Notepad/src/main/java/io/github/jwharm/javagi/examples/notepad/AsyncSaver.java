@@ -0,0 +1,151 @@
+package io.github.jwharm.javagi.examples.notepad;
+
+import org.javagi.base.GErrorException;
+import org.javagi.base.Out;
+import org.gnome.gio.Cancellable;
+import org.gnome.gio.File;
+import org.gnome.gio.FileCreateFlags;
+import org.gnome.gio.FileOutputStream;
+import org.gnome.glib.GLib;
+import org.gnome.gtk.TextBuffer;
+import org.gnome.gtk.TextIter;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Saves the contents of a TextBuffer to a file without blocking the main loop.
+ * <p>
+ * The file is replaced with {@link File#replaceAsync}: GIO writes to a
+ * temporary file and only replaces the original file when the stream is
+ * closed, so the original file stays intact when saving fails halfway. The
+ * text is written in chunks of a fixed number of characters, so the whole
+ * document is never copied into a Java String or byte array at once. The
+ * next chunk is only requested when the previous one has been written.
+ * <p>
+ * The buffer must not be modified while it is being saved.
+ * <p>
+ * The CodeEditor example uses this class as well.
+ */
+public final class AsyncSaver {
+
+    /**
+     * Callback that is notified when saving has finished.
+     */
+    @FunctionalInterface
+    public interface Done {
+        /**
+         * @param error the error that occurred, or null when the file was
+         *              saved successfully or saving was cancelled
+         */
+        void finished(GErrorException error);
+    }
+
+    private static final int CHUNK_CHARS = 64 * 1024;
+
+    private final File file;
+    private final TextBuffer buffer;
+    private final Cancellable cancellable;
+
+    private Done done;
+    private FileOutputStream stream;
+    private int offset = 0;
+    private int length;
+    private long written = 0;
+    private long start;
+
+    /**
+     * Create an AsyncSaver.
+     *
+     * @param file        the file to write
+     * @param buffer      the buffer to save
+     * @param cancellable to cancel saving
+     */
+    public AsyncSaver(File file, TextBuffer buffer, Cancellable cancellable) {
+        this.file = file;
+        this.buffer = buffer;
+        this.cancellable = cancellable;
+    }
+
+    /**
+     * Start saving the buffer. This method returns immediately.
+     *
+     * @param done called when saving has finished
+     */
+    public void save(Done done) {
+        this.done = done;
+        this.start = System.nanoTime();
+        this.length = buffer.getCharCount();
+
+        file.replaceAsync(null, false, FileCreateFlags.NONE, GLib.PRIORITY_DEFAULT, cancellable, (_, result, _) -> {
+            try {
+                stream = file.replaceFinish(result);
+            } catch (GErrorException e) {
+                fail(e);
+                return;
+            }
+            writeNextChunk();
+        });
+    }
+
+    // Write the next chunk of text. When it is written, continue with the next one.
+    private void writeNextChunk() {
+        if (cancellable.isCancelled()) {
+            discard();
+            done.finished(null);
+            return;
+        }
+        if (offset >= length) {
+            close();
+            return;
+        }
+
+        // Only this chunk is converted to a String and a byte array
+        int end = Math.min(length, offset + CHUNK_CHARS);
+        var from = new TextIter();
+        var to = new TextIter();
+        buffer.getIterAtOffset(from, offset);
+        buffer.getIterAtOffset(to, end);
+        byte[] data = buffer.getText(from, to, false).getBytes(StandardCharsets.UTF_8);
+        offset = end;
+
+        stream.writeAllAsync(data, GLib.PRIORITY_DEFAULT, cancellable, (_, result, _) -> {
+            try {
+                stream.writeAllFinish(result, new Out<>());
+            } catch (GErrorException e) {
+                discard();
+                fail(e);
+                return;
+            }
+            written += data.length;
+            writeNextChunk();
+        });
+    }
+
+    // Closing the stream with a cancelled Cancellable discards the temporary
+    // file and leaves the original file untouched.
+    private void discard() {
+        var abort = new Cancellable();
+        abort.cancel();
+        stream.closeAsync(GLib.PRIORITY_DEFAULT, abort, null);
+    }
+
+    // Closing the stream replaces the original file with the new contents
+    private void close() {
+        stream.closeAsync(GLib.PRIORITY_DEFAULT, cancellable, (_, result, _) -> {
+            try {
+                stream.closeFinish(result);
+            } catch (GErrorException e) {
+                fail(e);
+                return;
+            }
+            long nanos = Math.max(1, System.nanoTime() - start);
+            System.out.printf("Saved %d bytes in %d ms (%.1f MB/s)%n",
+                    written, nanos / 1_000_000, written * 1000.0 / nanos);
+            done.finished(null);
+        });
+    }
+
+    private void fail(GErrorException error) {
+        done.finished(cancellable.isCancelled() ? null : error);
+    }
+}
@@ -2,9 +2,8 @@ package io.github.jwharm.javagi.examples.notepad;
 
 import org.javagi.gobject.annotations.InstanceInit;
 import org.javagi.base.GErrorException;
-import org.javagi.base.Out;
+import org.gnome.gio.Cancellable;
 import org.gnome.gio.File;
-import org.gnome.gio.FileCreateFlags;
 import org.gnome.gtk.*;
 
 /**
@@ -19,6 +18,16 @@ public class EditorWindow extends ApplicationWindow {
     // The textview component
     private TextView textview;
 
+    // Shows the progress while a file is loading, and a button to cancel it
+    private ProgressBar progressBar;
+    private Button cancelButton;
+
+    // To cancel loading a file (or null when no file is loading)
+    private Cancellable loading = null;
+
+    // True while the file is being saved
+    private boolean saving = false;
+
     // Constructor for a new EditorWindow
     public EditorWindow(Application application) {
         setApplication(application);
@@ -52,7 +61,16 @@ public class EditorWindow extends ApplicationWindow {
                 .setChild(textview)
                 .setVexpand(true)
                 .build();
-        super.setChild(scrolledWindow);
+
+        // The progress bar is only visible while a file is loading.
+        progressBar = ProgressBar.builder()
+                .setVisible(false)
+                .build();
+
+        var box = new Box(Orientation.VERTICAL, 0);
+        box.append(progressBar);
+        box.append(scrolledWindow);
+        super.setChild(box);
 
         // Create buttons for 'new', 'open' and 'save' actions.
         var newButton = Button.fromIconName("document-new-symbolic");
@@ -67,8 +85,15 @@ public class EditorWindow extends ApplicationWindow {
         saveButton.onClicked(this::save);
         header.packStart(saveButton);
 
+        // The 'cancel' button is only visible while a file is loading.
+        cancelButton = Button.fromIconName("process-stop-symbolic");
+        cancelButton.setVisible(false);
+        cancelButton.onClicked(this::cancelLoading);
+        header.packEnd(cancelButton);
+
         // Ask to save changes before closing the window.
         this.onCloseRequest(() -> {
+            cancelLoading();
             whenSure(this::destroy);
             return true;
         });
@@ -117,8 +142,8 @@ public class EditorWindow extends ApplicationWindow {
             try {
                 int button = alert.chooseFinish(result);
                 if (button == 0) return; // cancel
-                if (button == 2) save(); // save
-                action.run();
+                if (button == 2) save(action); // save, and then run the action
+                else action.run();
             } catch (GErrorException ignored) {} // user clicked cancel
         });
     }
@@ -128,6 +153,7 @@ public class EditorWindow extends ApplicationWindow {
      * This could also open a new window, instead of cleaning the current buffer.
      */
     public void clear() {
+        cancelLoading();
         file = null;
     	textview.getBuffer().setText("", 0);
     	textview.getBuffer().setModified(false);
@@ -147,29 +173,97 @@ public class EditorWindow extends ApplicationWindow {
             if (file == null) return;
 
             // Load the contents of the selected file.
-            try {
-                // The byte[] parameter is an out-parameter in the C API.
-                // Create an empty Out<byte[]> object, and read its value afterward.
-                Out<byte[]> contents = new Out<>();
-                file.loadContents(null, contents, null);
-                textview.getBuffer().setText(new String(contents.get()), contents.get().length);
-                textview.getBuffer().setModified(false);
-                textview.grabFocus();
-            } catch (GErrorException e) {
-                AlertDialog.builder()
-                        .setModal(true)
-                        .setMessage("Error reading from file")
-                        .setDetail(e.getMessage())
-                        .build()
-                        .show(this);
-            }
+            load();
         });
     }
 
     /**
-     * "Save" action: Show a file dialog (for new files) and call {@link #write()}
+     * Load the contents of the file in the background. The file is read in
+     * chunks, so the window remains responsive while loading large files.
+     */
+    private void load() {
+        // The new file replaces the contents of the buffer, so a file that
+        // is still loading is not cleared first
+        if (loading != null)
+            loading.cancel();
+        var cancellable = new Cancellable();
+        loading = cancellable;
+
+        // Don't allow editing while the file is loading
+        showProgress(true);
+
+        new StreamingLoader(file, textview.getBuffer(), cancellable).load(
+                progressBar::setFraction,
+                error -> {
+                    // Loading was cancelled, or replaced by a newer load
+                    if (loading != cancellable)
+                        return;
+
+                    loading = null;
+                    showProgress(false);
+
+                    // Don't keep a partially loaded file
+                    if (error != null) {
+                        file = null;
+                        textview.getBuffer().setText("", 0);
+                    }
+                    textview.getBuffer().setModified(false);
+                    updateWindowTitle();
+                    textview.grabFocus();
+
+                    if (error != null) {
+                        AlertDialog.builder()
+                                .setModal(true)
+                                .setMessage("Error reading from file")
+                                .setDetail(error.getMessage())
+                                .build()
+                                .show(this);
+                    }
+                });
+    }
+
+    /**
+     * Cancel loading a file, if a file is being loaded. The partially loaded
+     * file is removed from the buffer.
+     */
+    private void cancelLoading() {
+        if (loading == null)
+            return;
+
+        loading.cancel();
+        loading = null;
+        showProgress(false);
+
+        file = null;
+        textview.getBuffer().setText("", 0);
+        textview.getBuffer().setModified(false);
+        updateWindowTitle();
+    }
+
+    /**
+     * Show or hide the progress bar and the 'cancel' button. The text can
+     * not be edited while the progress is shown.
+     */
+    private void showProgress(boolean show) {
+        textview.setEditable(!show);
+        progressBar.setFraction(0);
+        progressBar.setVisible(show);
+        cancelButton.setVisible(show);
+    }
+
+    /**
+     * "Save" action: Show a file dialog (for new files) and call {@link #write(Runnable)}
      */
     public void save() {
+        save(() -> {});
+    }
+
+    /**
+     * Save the file, and run {@code after} when the file was saved successfully.
+     *
+     * @param after the action to run after saving
+     */
+    private void save(Runnable after) {
         if (file == null) {
             // Set up a Save File dialog.
             var dialog = new FileDialog();
@@ -179,39 +273,44 @@ public class EditorWindow extends ApplicationWindow {
                     if (file == null) return;
 
                     // Write the textview buffer contents to the selected file.
-                    write();
-                    textview.getBuffer().setModified(false);
-                    textview.grabFocus();
+                    write(after);
                 } catch (GErrorException ignored) {} // used clicked cancel
             });
         } else {
             // Write the textview buffer contents to the file that was already open.
-            write();
-            textview.getBuffer().setModified(false);
-            textview.grabFocus();
+            write(after);
         }
     }
 
     /**
-     * Helper function that writes editor contents to a file.
+     * Helper function that writes editor contents to a file in the background.
      */
-    private void write() {
-        try {
-            // Get the contents of the textview buffer as a byte array
-            TextIter start = new TextIter();
-            TextIter end = new TextIter();
-            textview.getBuffer().getBounds(start, end);
-            byte[] contents = textview.getBuffer().getText(start, end, false).getBytes();
-
-            // Write the byte array to the file
-            file.replaceContents(contents, "", false, FileCreateFlags.NONE, null, null);
-        } catch (GErrorException e) {
-            AlertDialog.builder()
-                    .setModal(true)
-                    .setMessage("Error writing to file")
-                    .setDetail(e.getMessage())
-                    .build()
-                    .show(this);
-        }
+    private void write(Runnable after) {
+        // Don't save while the file is being loaded or saved
+        if (saving || loading != null) return;
+        saving = true;
+
+        // The buffer must not change while it is being saved
+        textview.setEditable(false);
+
+        new AsyncSaver(file, textview.getBuffer(), new Cancellable()).save(error -> {
+            saving = false;
+            textview.setEditable(true);
+            textview.grabFocus();
+
+            if (error != null) {
+                AlertDialog.builder()
+                        .setModal(true)
+                        .setMessage("Error writing to file")
+                        .setDetail(error.getMessage())
+                        .build()
+                        .show(this);
+                return;
+            }
+
+            textview.getBuffer().setModified(false);
+            updateWindowTitle();
+            after.run();
+        });
     }
 }
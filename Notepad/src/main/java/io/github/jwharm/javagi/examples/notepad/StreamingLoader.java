@@ -0,0 +1,180 @@
+package io.github.jwharm.javagi.examples.notepad;
+
+import org.javagi.base.GErrorException;
+import org.gnome.gio.Cancellable;
+import org.gnome.gio.File;
+import org.gnome.gio.FileInputStream;
+import org.gnome.glib.GLib;
+import org.gnome.gtk.TextBuffer;
+import org.gnome.gtk.TextIter;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Loads a file into a TextBuffer without blocking the main loop.
+ * <p>
+ * The file is read asynchronously in chunks. Every chunk is decoded from
+ * UTF-8 and appended to the buffer, before the next chunk is requested, so
+ * the main loop can handle other events (like redrawing the window) in
+ * between. A UTF-8 sequence that is split between two chunks is kept until
+ * the next chunk is read. Loading can be cancelled with a Cancellable; after
+ * it has been cancelled, the buffer is not changed anymore.
+ * <p>
+ * The inserted text does not mark the buffer as modified.
+ */
+public final class StreamingLoader {
+
+    /**
+     * Callback that is notified about the loading progress.
+     */
+    @FunctionalInterface
+    public interface Progress {
+        void update(double fraction);
+    }
+
+    /**
+     * Callback that is notified when loading has finished.
+     */
+    @FunctionalInterface
+    public interface Done {
+        /**
+         * @param error the error that occurred, or null when the file was
+         *              loaded completely or loading was cancelled
+         */
+        void finished(GErrorException error);
+    }
+
+    private static final int CHUNK_SIZE = 1024 * 1024;
+
+    private final File file;
+    private final TextBuffer buffer;
+    private final Cancellable cancellable;
+    private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+    private Progress progress;
+    private Done done;
+    private FileInputStream stream;
+    private long size;
+    private long read = 0;
+
+    // Bytes of an incomplete UTF-8 sequence at the end of the previous chunk
+    private ByteBuffer remaining = ByteBuffer.allocate(0);
+
+    /**
+     * Create a StreamingLoader.
+     *
+     * @param file        the file to read
+     * @param buffer      the buffer to load the file into
+     * @param cancellable to cancel loading
+     */
+    public StreamingLoader(File file, TextBuffer buffer, Cancellable cancellable) {
+        this.file = file;
+        this.buffer = buffer;
+        this.cancellable = cancellable;
+    }
+
+    /**
+     * Start loading the file. The current contents of the buffer are
+     * replaced. This method returns immediately.
+     *
+     * @param progress notified after every chunk
+     * @param done     called when loading has finished
+     */
+    public void load(Progress progress, Done done) {
+        this.progress = progress;
+        this.done = done;
+
+        file.readAsync(GLib.PRIORITY_DEFAULT, cancellable, (_, result, _) -> {
+            try {
+                var input = file.readFinish(result);
+                if (cancellable.isCancelled()) {
+                    input.closeAsync(GLib.PRIORITY_DEFAULT, null, null);
+                    finish(null);
+                    return;
+                }
+                size = input.queryInfo("standard::size", cancellable).getSize();
+                stream = input;
+            } catch (GErrorException e) {
+                finish(e);
+                return;
+            }
+
+            // Loading the file should not be undoable
+            buffer.beginIrreversibleAction();
+            buffer.setText("", 0);
+            buffer.setModified(false);
+            readNextChunk();
+        });
+    }
+
+    // Request the next chunk. When it is available, append it to the buffer.
+    private void readNextChunk() {
+        stream.readBytesAsync(CHUNK_SIZE, GLib.PRIORITY_DEFAULT, cancellable, (_, result, _) -> {
+            byte[] data;
+            try {
+                data = stream.readBytesFinish(result).getData();
+            } catch (GErrorException e) {
+                finish(e);
+                return;
+            }
+
+            // The chunk was read just before loading was cancelled
+            if (cancellable.isCancelled()) {
+                finish(null);
+                return;
+            }
+
+            // An empty chunk means that the end of the file was reached
+            boolean endOfFile = data == null || data.length == 0;
+            append(endOfFile ? new byte[0] : data, endOfFile);
+            if (endOfFile) {
+                finish(null);
+                return;
+            }
+
+            read += data.length;
+            progress.update(size > 0 ? Math.min(1.0, (double) read / size) : 0);
+            readNextChunk();
+        });
+    }
+
+    // Decode the bytes and append the text to the end of the buffer
+    private void append(byte[] data, boolean endOfInput) {
+        var in = !remaining.hasRemaining() ? ByteBuffer.wrap(data)
+                : ByteBuffer.allocate(remaining.remaining() + data.length)
+                        .put(remaining)
+                        .put(data)
+                        .flip();
+        var out = CharBuffer.allocate(in.remaining() + 1);
+        decoder.decode(in, out, endOfInput);
+        if (endOfInput)
+            decoder.flush(out);
+
+        // Keep the (at most 3) bytes that could not be decoded yet
+        remaining = ByteBuffer.allocate(in.remaining()).put(in).flip();
+
+        out.flip();
+        if (!out.isEmpty()) {
+            var end = new TextIter();
+            buffer.getEndIter(end);
+            buffer.insert(end, out.toString(), -1);
+
+            // The file is not modified until loading has finished
+            buffer.setModified(false);
+        }
+    }
+
+    private void finish(GErrorException error) {
+        if (stream != null) {
+            buffer.endIrreversibleAction();
+            stream.closeAsync(GLib.PRIORITY_DEFAULT, null, null);
+        }
+        done.finished(cancellable.isCancelled() ? null : error);
+    }
+}
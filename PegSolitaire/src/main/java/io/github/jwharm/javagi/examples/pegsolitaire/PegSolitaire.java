@@ -1,5 +1,6 @@
 package io.github.jwharm.javagi.examples.pegsolitaire;
 
+import org.javagi.base.GErrorException;
 import org.javagi.base.Out;
 import org.javagi.gobject.types.Types;
 import org.gnome.gdk.*;
@@ -26,6 +27,14 @@ public class PegSolitaire {
 
     private static CssProvider provider;
 
+    private static final String COMPLETE_SOUND = GLib.buildFilename(
+            "/usr", "share", "sounds", "freedesktop", "stereo", "complete.oga", null);
+    private static final String SUSPEND_ERROR_SOUND = GLib.buildFilename(
+            "/usr", "share", "sounds", "freedesktop", "stereo", "suspend-error.oga", null);
+
+    // The sounds are decoded once, and played by a long-lived pipeline
+    private static SoundEffects sounds;
+
     /* Create an object for the pegs that get moved around in the game.
      *
      * We implement the GdkPaintable interface for them, so we can use GtkPicture
@@ -94,17 +103,8 @@ public class PegSolitaire {
     /*** Helper for finding a win ***/
 
     private void celebrate(boolean win) {
-        String path;
-
-        if (win)
-            path = GLib.buildFilename(
-                    "usr", "share", "sounds", "freedesktop", "stereo", "complete.oga", null);
-        else
-            path = GLib.buildFilename(
-                    "usr", "share", "sounds", "freedesktop", "stereo", "suspend-error.oga", null);
-        MediaStream stream = MediaFile.forFilename(path);
-        stream.setVolume(1.0);
-        stream.play();
+        if (sounds != null)
+            sounds.play(win ? COMPLETE_SOUND : SUSPEND_ERROR_SOUND);
     }
 
     private int checkMove(Grid grid, int x, int y, int dx, int dy) {
@@ -351,10 +351,20 @@ public class PegSolitaire {
     }
 
     public static void main(String[] args) {
+        try {
+            sounds = new SoundEffects(System.getProperty("pegsolitaire.audiosink", "autoaudiosink"), 4 * 1024 * 1024);
+            sounds.preload(COMPLETE_SOUND, SUSPEND_ERROR_SOUND);
+        } catch (GErrorException | IllegalStateException e) {
+            // Play without sound
+            System.err.printf("Cannot create the sound effects: %s%n", e.getMessage());
+        }
+
         var app = new Application("io.github.jwharm.javagi.examples.PegSolitaire", ApplicationFlags.DEFAULT_FLAGS);
         app.onActivate(() -> new PegSolitaire(app));
         app.run(args);
 
+        if (sounds != null)
+            sounds.close();
         Gtk.styleContextRemoveProviderForDisplay(Display.getDefault(), PegSolitaire.provider);
     }
 }
@@ -0,0 +1,446 @@
+package io.github.jwharm.javagi.examples.pegsolitaire;
+
+import org.javagi.base.GErrorException;
+import org.javagi.base.Out;
+import org.freedesktop.gstreamer.app.AppSink;
+import org.freedesktop.gstreamer.app.AppSrc;
+import org.freedesktop.gstreamer.gst.*;
+import org.gnome.glib.GError;
+import org.gnome.glib.GLib;
+import org.gnome.glib.Source;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.Linker;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.SymbolLookup;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.lang.foreign.MemoryLayout.PathElement.groupElement;
+import static java.lang.foreign.ValueLayout.*;
+
+/**
+ * Plays short sound effects with a low latency.
+ * <p>
+ * A sound file is decoded only once, into 16-bit stereo PCM samples in native
+ * memory. The samples are wrapped in a GstBuffer without copying them. The
+ * decoded clips are kept in a cache with a maximum size; when it is full, the
+ * least recently played clips are removed. The samples of a removed clip are
+ * freed when the last buffer that uses them has been played.
+ * <p>
+ * The sounds are played by a pipeline that is created once, and keeps running
+ * until the SoundEffects object is closed. It has a few AppSrc elements (the
+ * "voices") that are mixed by an audiomixer, so a few sounds can be played at
+ * the same time. Playing a sound pushes a shallow copy of the buffer (that
+ * shares the samples) into a voice that is not playing. When all voices are
+ * playing, the sound is dropped.
+ * <p>
+ * A pad probe on the audio sink measures the latency: the time from the call
+ * to {@link #play} until the first sample of the sound arrives at the audio
+ * sink. The latency of the sound card itself is not included. It is only
+ * measured for sounds that start while no other sound is playing.
+ */
+public final class SoundEffects implements AutoCloseable {
+
+    private static final int VOICES = 4;
+    private static final int RATE = 48000;
+    private static final int CHANNELS = 2;
+    private static final int BYTES_PER_FRAME = CHANNELS * 2;
+    private static final String CAPS =
+            "audio/x-raw,format=S16LE,layout=interleaved,rate=" + RATE + ",channels=" + CHANNELS;
+
+    /**
+     * Panama downcalls for pushing the buffers, so no Java proxy objects are
+     * created when a sound is played. The symbols are resolved when this class
+     * is first used, which must be after the GStreamer libraries have been
+     * loaded by Java-GI.
+     */
+    private static final class Native {
+
+        private static final Linker LINKER = Linker.nativeLinker();
+        private static final SymbolLookup LOOKUP = SymbolLookup.loaderLookup();
+
+        static final MethodHandle BUFFER_NEW_WRAPPED_FULL = downcall("gst_buffer_new_wrapped_full",
+                FunctionDescriptor.of(ADDRESS, JAVA_INT, ADDRESS, JAVA_LONG, JAVA_LONG, JAVA_LONG, ADDRESS, ADDRESS));
+        static final MethodHandle MINI_OBJECT_COPY = downcall("gst_mini_object_copy",
+                FunctionDescriptor.of(ADDRESS, ADDRESS));
+        static final MethodHandle MINI_OBJECT_UNREF = downcall("gst_mini_object_unref",
+                FunctionDescriptor.ofVoid(ADDRESS));
+        static final MethodHandle PUSH_BUFFER = downcall("gst_app_src_push_buffer",
+                FunctionDescriptor.of(JAVA_INT, ADDRESS, ADDRESS));
+
+        static final long BUFFER_DURATION = Buffer.getMemoryLayout().byteOffset(groupElement("duration"));
+        static final int GST_MEMORY_FLAG_READONLY = 2;
+
+        // The GDestroyNotify of the wrapped samples. The user data is the
+        // address of the samples.
+        static final MemorySegment FREE_SAMPLES;
+
+        static {
+            try {
+                var free = MethodHandles.lookup().findStatic(SoundEffects.class, "freeSamples",
+                        MethodType.methodType(void.class, MemorySegment.class));
+                FREE_SAMPLES = LINKER.upcallStub(free, FunctionDescriptor.ofVoid(ADDRESS), Arena.global());
+            } catch (ReflectiveOperationException e) {
+                throw new AssertionError(e);
+            }
+        }
+
+        private static MethodHandle downcall(String name, FunctionDescriptor descriptor) {
+            var symbol = LOOKUP.find(name).orElseThrow(() -> new UnsatisfiedLinkError("Cannot find " + name));
+            return LINKER.downcallHandle(symbol, descriptor);
+        }
+    }
+
+    // The arenas of the wrapped samples, by the address of the samples
+    private static final Map<Long, Arena> SAMPLES = new ConcurrentHashMap<>();
+
+    /**
+     * A decoded sound file.
+     *
+     * @param buffer   the GstBuffer that wraps the samples
+     * @param size     the size of the samples in bytes
+     * @param duration the duration in nanoseconds
+     */
+    private record Clip(MemorySegment buffer, long size, long duration) {
+    }
+
+    private final long maxCacheBytes;
+    private final Pipeline pipeline;
+    private final AppSrc[] voices = new AppSrc[VOICES];
+    private final int busWatchId;
+
+    // The decoded clips, in the order in which they were last played
+    private final LinkedHashMap<String, Clip> cache = new LinkedHashMap<>(16, 0.75f, true);
+    private long cacheBytes = 0;
+    private boolean closed = false;
+
+    // When every voice has finished its current sound
+    private final long[] busyUntil = new long[VOICES];
+    private long dropped = 0;
+
+    // When a sound is triggered during silence, the time of the trigger
+    private final AtomicLong triggered = new AtomicLong();
+    private volatile boolean sounding = false;
+
+    // The latency measurements, only updated on the streaming thread
+    private final MemorySegment scratch = Arena.ofAuto().allocate(64 * 1024, 8);
+    private long measured = 0;
+    private long totalLatency = 0;
+    private long maxLatency = 0;
+
+    /**
+     * Create the pipeline and start it. It plays silence until a sound is
+     * played.
+     *
+     * @param sinkDescription the audio sink in gst-launch syntax, for example
+     *                        "autoaudiosink", or "fakesink sync=true" to test
+     *                        without a sound card
+     * @param maxCacheBytes   the maximum size of the decoded clips together
+     * @throws GErrorException when the sink description is invalid
+     * @throws IllegalStateException when GStreamer is not available
+     */
+    public SoundEffects(String sinkDescription, long maxCacheBytes) throws GErrorException {
+        // Load the GStreamer libraries before the native functions are looked up
+        try {
+            Gst.init(new Out<>(new String[0]));
+            AppSrc.getType();
+            Native.PUSH_BUFFER.type();
+        } catch (LinkageError e) {
+            throw new IllegalStateException("GStreamer is not available: " + e.getMessage(), e);
+        }
+        this.maxCacheBytes = maxCacheBytes;
+        Arrays.fill(busyUntil, Long.MIN_VALUE);
+
+        // A silent live source keeps the mixer running while no sound is played
+        var description = new StringBuilder("audiomixer name=mixer latency=10000000 ! audioconvert ! audioresample name=out ");
+        description.append("audiotestsrc wave=silence is-live=true samplesperbuffer=480 ! ")
+                .append(CAPS).append(" ! mixer. ");
+        for (int i = 0; i < VOICES; i++)
+            description.append("appsrc name=voice").append(i)
+                    .append(" is-live=true format=time do-timestamp=true caps=").append(CAPS)
+                    .append(" ! mixer. ");
+        pipeline = (Pipeline) Gst.parseLaunch(description.toString());
+        for (int i = 0; i < VOICES; i++)
+            voices[i] = (AppSrc) pipeline.getByName("voice" + i);
+
+        Bin sink = Gst.parseBinFromDescription(sinkDescription, true);
+        pipeline.add(sink);
+        pipeline.getByName("out").link(sink);
+        sink.getStaticPad("sink").addProbe(Set.of(PadProbeType.BUFFER), this::probe);
+
+        busWatchId = pipeline.getBus().addWatch(0, (_, msg) -> {
+            if (msg.readType().contains(MessageType.ERROR)) {
+                Out<GError> error = new Out<>();
+                Out<String> debug = new Out<>();
+                msg.parseError(error, debug);
+                System.err.printf("Cannot play sound effects: %s%n", error.get().readMessage());
+            }
+            return true;
+        });
+        pipeline.setState(State.PLAYING);
+    }
+
+    // Called by GStreamer (on any thread) when the last buffer that uses the
+    // samples has been freed. An exception must not escape from here.
+    private static void freeSamples(MemorySegment samples) {
+        try {
+            Arena arena = SAMPLES.remove(samples.address());
+            if (arena != null)
+                arena.close();
+        } catch (Throwable t) {
+            System.err.printf("Cannot free sound samples: %s%n", t);
+        }
+    }
+
+    // Remove the reference of the cache to a clip. The samples are freed when
+    // no voice is playing them anymore.
+    private static void release(Clip clip) {
+        try {
+            Native.MINI_OBJECT_UNREF.invokeExact(clip.buffer());
+        } catch (Throwable t) {
+            throw new AssertionError(t);
+        }
+    }
+
+    /**
+     * Decode sound files in the background, so they can be played without
+     * delay.
+     *
+     * @param files the sound files
+     */
+    public void preload(String... files) {
+        Thread.ofVirtual().name("SoundEffects").start(() -> {
+            for (var file : files)
+                load(file);
+        });
+    }
+
+    /**
+     * Play a sound file. When it is in the cache, it is pushed into the
+     * pipeline immediately. Otherwise, it is decoded in the background first.
+     *
+     * @param file the sound file
+     */
+    public void play(String file) {
+        long now = System.nanoTime();
+        synchronized (cache) {
+            Clip clip = cache.get(file);
+            if (clip != null) {
+                push(clip, now);
+                return;
+            }
+        }
+        Thread.ofVirtual().name("SoundEffects").start(() -> {
+            if (load(file) == null)
+                return;
+            synchronized (cache) {
+                Clip clip = cache.get(file);
+                if (clip != null)
+                    push(clip, now);
+            }
+        });
+    }
+
+    // Push a shallow copy of the clip buffer into a voice that is not playing.
+    // The copy shares the samples, and gets its own timestamp from the AppSrc.
+    // The caller holds the cache lock, so the clip cannot be released meanwhile.
+    private void push(Clip clip, long now) {
+        if (closed)
+            return;
+
+        int voice = 0;
+        for (int i = 1; i < VOICES; i++)
+            if (busyUntil[i] < busyUntil[voice])
+                voice = i;
+        if (busyUntil[voice] > now) {
+            dropped++;
+            return;
+        }
+        busyUntil[voice] = now + clip.duration();
+
+        if (!sounding)
+            triggered.compareAndSet(0, now);
+        try {
+            var buffer = (MemorySegment) Native.MINI_OBJECT_COPY.invokeExact(clip.buffer());
+
+            // The AppSrc takes ownership of the buffer
+            int flow = (int) Native.PUSH_BUFFER.invokeExact(voices[voice].handle(), buffer);
+            if (flow != FlowReturn.OK.getValue())
+                System.err.printf("Cannot play sound effect: %s%n", FlowReturn.of(flow));
+        } catch (Throwable t) {
+            throw new AssertionError(t);
+        }
+    }
+
+    // Get a clip from the cache, or decode it and add it to the cache.
+    // Returns null when the file cannot be decoded.
+    private Clip load(String file) {
+        synchronized (cache) {
+            Clip clip = cache.get(file);
+            if (clip != null)
+                return clip;
+        }
+
+        Clip clip;
+        try {
+            clip = decode(file);
+        } catch (GErrorException | IllegalStateException e) {
+            System.err.printf("Cannot decode %s: %s%n", file, e.getMessage());
+            return null;
+        }
+
+        synchronized (cache) {
+            // Another thread has decoded the same file, or the cache is closed
+            Clip existing = cache.get(file);
+            if (existing != null || closed) {
+                release(clip);
+                return existing;
+            }
+            cache.put(file, clip);
+            cacheBytes += clip.size();
+
+            // Remove the least recently played clips, but keep the new one
+            Iterator<Map.Entry<String, Clip>> iter = cache.entrySet().iterator();
+            while (cacheBytes > maxCacheBytes && cache.size() > 1) {
+                Clip evicted = iter.next().getValue();
+                iter.remove();
+                cacheBytes -= evicted.size();
+                release(evicted);
+            }
+            return clip;
+        }
+    }
+
+    // Decode a sound file with a temporary pipeline, copy the samples into
+    // native memory, and wrap them in a buffer
+    private static Clip decode(String file) throws GErrorException {
+        var decoder = (Pipeline) Gst.parseLaunch(
+                "filesrc name=src ! decodebin ! audioconvert ! audioresample ! appsink name=sink sync=false caps=" + CAPS);
+        decoder.getByName("src").set("location", file, null);
+        var appsink = (AppSink) decoder.getByName("sink");
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        MemorySegment samples;
+        long length = 0;
+        try (var temp = Arena.ofConfined()) {
+            samples = temp.allocate(256 * 1024);
+            decoder.setState(State.PLAYING);
+            while (true) {
+                Sample sample = appsink.tryPullSample(100_000_000L);
+                if (sample == null) {
+                    if (appsink.isEos())
+                        break;
+                    Message msg = decoder.getBus().popFiltered(Set.of(MessageType.ERROR));
+                    if (msg != null) {
+                        Out<GError> error = new Out<>();
+                        Out<String> debug = new Out<>();
+                        msg.parseError(error, debug);
+                        throw new IllegalStateException(error.get().readMessage());
+                    }
+                    if (System.nanoTime() > deadline)
+                        throw new IllegalStateException("Decoding took too long");
+                    continue;
+                }
+
+                Buffer buffer = sample.getBuffer();
+                long size = buffer.getSize();
+                if (length + size > samples.byteSize()) {
+                    var larger = temp.allocate(Math.max(samples.byteSize() * 2, length + size));
+                    MemorySegment.copy(samples, 0, larger, 0, length);
+                    samples = larger;
+                }
+                length += buffer.extract(0, samples.asSlice(length, size), size);
+            }
+
+            // Copy the samples into a segment with the exact size
+            long size = Math.max(length, BYTES_PER_FRAME);
+            var arena = Arena.ofShared();
+            var pcm = arena.allocate(size, 8);
+            MemorySegment.copy(samples, 0, pcm, 0, length);
+            long duration = size / BYTES_PER_FRAME * 1_000_000_000L / RATE;
+            return new Clip(wrap(arena, pcm), size, duration);
+        } finally {
+            decoder.setState(State.NULL);
+        }
+    }
+
+    // Wrap the samples in a read-only buffer. The arena is closed when the
+    // buffer and all its copies have been freed.
+    private static MemorySegment wrap(Arena arena, MemorySegment pcm) {
+        SAMPLES.put(pcm.address(), arena);
+        try {
+            var buffer = (MemorySegment) Native.BUFFER_NEW_WRAPPED_FULL.invokeExact(
+                    Native.GST_MEMORY_FLAG_READONLY, pcm, pcm.byteSize(), 0L, pcm.byteSize(), pcm, Native.FREE_SAMPLES);
+            buffer = buffer.reinterpret(Buffer.getMemoryLayout().byteSize());
+            buffer.set(JAVA_LONG, Native.BUFFER_DURATION, pcm.byteSize() / BYTES_PER_FRAME * 1_000_000_000L / RATE);
+            return buffer;
+        } catch (Throwable t) {
+            SAMPLES.remove(pcm.address());
+            arena.close();
+            throw new IllegalStateException("Cannot wrap the samples", t);
+        }
+    }
+
+    // Runs on the streaming thread: check if the samples that arrive at the
+    // audio sink are silent, and measure the latency of the first sound after
+    // a period of silence
+    private PadProbeReturn probe(Pad pad, PadProbeInfo info) {
+        Buffer buffer = info.getBuffer();
+        long size = buffer.extract(0, scratch, Math.min(buffer.getSize(), scratch.byteSize()));
+        boolean silent = true;
+        for (long i = 0; i + 8 <= size && silent; i += 8)
+            silent = scratch.get(JAVA_LONG, i) == 0;
+        for (long i = size & ~7L; i < size && silent; i++)
+            silent = scratch.get(JAVA_BYTE, i) == 0;
+
+        if (!silent) {
+            long start = triggered.getAndSet(0);
+            if (start != 0) {
+                long latency = System.nanoTime() - start;
+                measured++;
+                totalLatency += latency;
+                maxLatency = Math.max(maxLatency, latency);
+            }
+        }
+        sounding = !silent;
+        return PadProbeReturn.OK;
+    }
+
+    /**
+     * Stop the pipeline, print the measured latency and the number of dropped
+     * sounds, and free the decoded clips.
+     */
+    @Override
+    public void close() {
+        pipeline.setState(State.NULL);
+        Source.remove(busWatchId);
+
+        if (measured > 0)
+            GLib.print("Sound effect latency: %.1f ms average, %.1f ms max (%d sounds)\n",
+                    totalLatency / 1e6 / measured, maxLatency / 1e6, (int) measured);
+
+        synchronized (cache) {
+            if (dropped > 0)
+                GLib.print("Dropped %d sound effects, because all voices were playing\n", (int) dropped);
+        }
+
+        synchronized (cache) {
+            closed = true;
+            for (var clip : cache.values())
+                release(clip);
+            cache.clear();
+            cacheBytes = 0;
+        }
+    }
+}
@@ -7,6 +7,7 @@ import org.gnome.glib.GLib;
 import org.gnome.glib.MainLoop;
 import org.gnome.glib.Source;
 
+import java.util.List;
 import java.util.Objects;
 import java.util.stream.Stream;
 
@@ -110,7 +111,25 @@ public class PlaySound {
     }
     
     public static void main(String[] args) {
-        new PlaySound(args);
+        // Play a comma-separated list of files without gaps, for example:
+        // -Dplaysound.playlist=a.ogg,b.ogg -Dplaysound.sink="fakesink sync=true"
+        String playlist = System.getProperty("playsound.playlist");
+        if (playlist == null) {
+            new PlaySound(args);
+            return;
+        }
+
+        // Ignore empty entries: an empty path would become the URI of the
+        // working directory
+        List<String> files = Stream.of(playlist.split(","))
+                .map(String::strip)
+                .filter(file -> !file.isEmpty())
+                .toList();
+        if (files.isEmpty()) {
+            GLib.printerr("The playlist is empty\n");
+            return;
+        }
+        new PlaylistPlayer(args, files, System.getProperty("playsound.sink", "autoaudiosink"));
     }
 }
 
@@ -0,0 +1,175 @@
+package io.github.jwharm.javagi.examples.playsound;
+
+import org.javagi.base.GErrorException;
+import org.javagi.base.Out;
+import org.javagi.gobject.JavaClosure;
+import org.freedesktop.gstreamer.gst.*;
+import org.gnome.glib.GError;
+import org.gnome.glib.GLib;
+import org.gnome.glib.MainLoop;
+import org.gnome.glib.Source;
+import org.gnome.gobject.GObjects;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Play a list of files without gaps between the tracks.
+ * <p>
+ * The files are played with a playbin. Shortly before the current track has
+ * been decoded completely, the playbin emits the "about-to-finish" signal. The
+ * next file is set in the signal handler, so it is opened and decoded while
+ * the end of the current track is still playing, and the audio continues
+ * without a gap.
+ * <p>
+ * A pad probe on the audio sink measures the gap between the tracks: the
+ * running time between the end of the last buffer of a track and the start
+ * of the first buffer of the next track. It also measures how long before
+ * the first buffer of the next track arrived, the track was queued.
+ */
+public class PlaylistPlayer {
+
+    private final MainLoop loop;
+    private final Element playbin;
+    private final List<String> uris;
+    private final AtomicInteger current = new AtomicInteger();
+    private volatile long queuedAt = 0;
+
+    // The state of the audio sink probe, only used on the streaming thread
+    private Segment segment = null;
+    private boolean trackStarted = false;
+    private long lastEnd = -1;
+
+    // The measured gaps and lead times in nanoseconds
+    private final List<long[]> transitions = new ArrayList<>();
+
+    private boolean busCall(Bus bus, Message msg) {
+
+        if (msg.readType().contains(MessageType.EOS)) {
+            GLib.print("End of playlist\n");
+            loop.quit();
+        }
+
+        else if (msg.readType().contains(MessageType.ERROR)) {
+            Out<GError> error = new Out<>();
+            Out<String> debug = new Out<>();
+            msg.parseError(error, debug);
+
+            GLib.printerr("Error: %s\n", error.get().readMessage());
+
+            loop.quit();
+        }
+
+        return true;
+    }
+
+    // Called on a streaming thread when the current track has been queued completely
+    private void aboutToFinish() {
+        int next = current.incrementAndGet();
+        if (next < uris.size()) {
+            queuedAt = System.nanoTime();
+            GLib.print("Queued: %s\n", uris.get(next));
+            playbin.set("uri", uris.get(next), null);
+        }
+    }
+
+    // Measure the gap between the tracks at the audio sink
+    private PadProbeReturn probe(Pad pad, PadProbeInfo info) {
+        if (info.readType().contains(PadProbeType.BUFFER)) {
+            var buffer = info.getBuffer();
+            long pts = buffer.readPts();
+            if (segment == null || pts == -1)
+                return PadProbeReturn.OK;
+
+            long start = segment.toRunningTime(Format.TIME, pts);
+            if (trackStarted && lastEnd >= 0) {
+                long gap = start - lastEnd;
+                long lead = System.nanoTime() - queuedAt;
+                synchronized (transitions) {
+                    transitions.add(new long[] {gap, lead});
+                }
+            }
+            trackStarted = false;
+            long duration = buffer.readDuration();
+            if (duration != -1)
+                lastEnd = start + duration;
+        } else {
+            var event = info.getEvent();
+            if (event.readType() == EventType.STREAM_START) {
+                trackStarted = true;
+            } else if (event.readType() == EventType.SEGMENT) {
+                var out = new Out<Segment>();
+                event.parseSegment(out);
+                segment = out.get().copy();
+            }
+        }
+        return PadProbeReturn.OK;
+    }
+
+    /**
+     * Play the files, and print the gaps between the tracks.
+     *
+     * @param args            the command-line arguments for GStreamer
+     * @param files           the files to play
+     * @param sinkDescription the audio sink in gst-launch syntax, for example
+     *                        "autoaudiosink", or "fakesink sync=true" to test
+     *                        without a sound card
+     */
+    public PlaylistPlayer(String[] args, List<String> files, String sinkDescription) {
+
+        // Initialisation
+        Gst.init(new Out<>(args));
+
+        loop = new MainLoop(null, false);
+        uris = files.stream().map(file -> Path.of(file).toAbsolutePath().toUri().toString()).toList();
+
+        // Create the playbin and the audio sink
+        playbin = ElementFactory.make("playbin", "player");
+        if (playbin == null) {
+            GLib.printerr("The playbin could not be created. Exiting.\n");
+            return;
+        }
+        Bin sink;
+        try {
+            sink = Gst.parseBinFromDescription(sinkDescription, true);
+        } catch (GErrorException e) {
+            GLib.printerr("Cannot create the audio sink: %s\n", e.getMessage());
+            return;
+        }
+        playbin.set("audio-sink", sink, null);
+        playbin.set("uri", uris.getFirst(), null);
+
+        // Queue the next track when the current track is about to finish
+        GObjects.signalConnectClosure(playbin, "about-to-finish", new JavaClosure(this::aboutToFinish), false);
+
+        // Measure the gaps between the tracks
+        sink.getStaticPad("sink").addProbe(
+                Set.of(PadProbeType.BUFFER, PadProbeType.EVENT_DOWNSTREAM), this::probe);
+
+        // We add a message handler
+        Bus bus = playbin.getBus();
+        int busWatchId = bus.addWatch(0, this::busCall);
+
+        // Start playing
+        GLib.print("Now playing: %s\n", uris.getFirst());
+        playbin.setState(State.PLAYING);
+
+        // Iterate
+        GLib.print("Running...\n");
+        loop.run();
+
+        // Out of the main loop, clean up nicely
+        GLib.print("Returned, stopping playback\n");
+        playbin.setState(State.NULL);
+        Source.remove(busWatchId);
+
+        synchronized (transitions) {
+            for (var transition : transitions)
+                GLib.print("Gap between tracks: %.3f ms (next track queued %.0f ms before it started)\n",
+                        transition[0] / 1e6, transition[1] / 1e6);
+        }
+    }
+}
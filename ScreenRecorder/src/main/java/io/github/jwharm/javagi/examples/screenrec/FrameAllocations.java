@@ -0,0 +1,39 @@
+package io.github.jwharm.javagi.examples.screenrec;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Measures the bytes that are allocated on the Java heap while the frames
+ * are handled, with {@code ThreadMXBean.getCurrentThreadAllocatedBytes}. It
+ * is used to verify that handing the frames over to the consumer doesn't
+ * create garbage.
+ */
+final class FrameAllocations {
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private final LongAdder bytes = new LongAdder();
+
+    /**
+     * The number of bytes that the current thread has allocated so far.
+     */
+    static long now() {
+        return THREADS.getCurrentThreadAllocatedBytes();
+    }
+
+    /**
+     * Add the bytes that the current thread has allocated since {@code start}.
+     */
+    void since(long start) {
+        bytes.add(now() - start);
+    }
+
+    /**
+     * The number of bytes that were allocated.
+     */
+    long sum() {
+        return bytes.sum();
+    }
+}
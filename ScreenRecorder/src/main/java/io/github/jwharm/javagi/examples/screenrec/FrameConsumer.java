@@ -0,0 +1,22 @@
+package io.github.jwharm.javagi.examples.screenrec;
+
+import java.lang.foreign.MemorySegment;
+
+/**
+ * Receives the video frames from a {@link FrameGrabber}.
+ */
+@FunctionalInterface
+public interface FrameConsumer {
+
+    /**
+     * Process a frame. The pixels are the mapped memory of the GStreamer
+     * buffer; they are not copied. The buffer is unmapped when this method
+     * returns, so the memory segment must not be used after that.
+     *
+     * @param pixels a read-only view of the pixels
+     * @param format the size and format of the frame
+     * @param pts    the presentation timestamp in nanoseconds, or -1 when
+     *               the frame has no timestamp
+     */
+    void accept(MemorySegment pixels, FrameFormat format, long pts);
+}
@@ -0,0 +1,33 @@
+package io.github.jwharm.javagi.examples.screenrec;
+
+import org.freedesktop.gstreamer.gst.Caps;
+import org.javagi.base.Out;
+
+/**
+ * The format of the video frames that a {@link FrameConsumer} receives.
+ *
+ * @param width  the width in pixels
+ * @param height the height in pixels
+ * @param stride the number of bytes from the start of one row to the next
+ * @param format the GStreamer video format, for example "BGRx"
+ */
+public record FrameFormat(int width, int height, int stride, String format) {
+
+    /**
+     * Read the format from the caps of a sample. The stride is calculated from
+     * the size of the buffer, so this only works for packed formats (with one
+     * plane).
+     *
+     * @param caps the caps of the sample
+     * @param size the size of the buffer in bytes
+     */
+    static FrameFormat of(Caps caps, long size) {
+        var structure = caps.getStructure(0);
+        var width = new Out<Integer>(0);
+        var height = new Out<Integer>(0);
+        structure.getInt("width", width);
+        structure.getInt("height", height);
+        int stride = height.get() == 0 ? 0 : (int) (size / height.get());
+        return new FrameFormat(width.get(), height.get(), stride, structure.getString("format"));
+    }
+}
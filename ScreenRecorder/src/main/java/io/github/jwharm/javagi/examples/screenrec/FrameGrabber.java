@@ -0,0 +1,158 @@
+package io.github.jwharm.javagi.examples.screenrec;
+
+import org.freedesktop.gstreamer.app.AppSink;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.MemoryLayout;
+import java.lang.foreign.MemorySegment;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+import static io.github.jwharm.javagi.examples.screenrec.GstFunctions.*;
+import static java.lang.foreign.ValueLayout.ADDRESS;
+import static java.lang.foreign.ValueLayout.JAVA_INT;
+import static java.lang.foreign.ValueLayout.JAVA_LONG;
+
+/**
+ * Pulls the frames from an AppSink, and passes them to a
+ * {@link FrameConsumer} without copying them.
+ * <p>
+ * The AppSink calls the grabber directly from the streaming thread (with
+ * {@code gst_app_sink_set_callbacks}), instead of emitting the "new-sample"
+ * signal. The grabber pulls the sample, maps the buffer read-only and gives
+ * the consumer a view of the mapped memory.
+ * <p>
+ * The GStreamer functions are called with Panama downcalls instead of the
+ * Java-GI bindings, so no Java proxy objects are created for the sample,
+ * buffer and caps. Pointers are passed as {@code long} values, the GstMapInfo
+ * struct is allocated once, the views of the pixels are reused, and the caps
+ * are only read again when they change. This way, the frames are processed
+ * without creating garbage on the Java heap. The bytes that are allocated
+ * while a frame is handled are measured (see {@link #getAllocatedBytes()}),
+ * so this can be verified.
+ * <p>
+ * The AppSink should have caps with a packed video format, such as
+ * {@code video/x-raw,format=BGRx}.
+ */
+public final class FrameGrabber implements AutoCloseable {
+
+    // GstAppSinkCallbacks: eos, new_preroll, new_sample, new_event,
+    // propose_allocation and two reserved pointers
+    private static final MemoryLayout CALLBACKS = MemoryLayout.sequenceLayout(7, ADDRESS);
+    private static final long NEW_SAMPLE = 2 * ADDRESS.byteSize();
+
+    /**
+     * Receives the samples that are pulled from the AppSink. The handler owns
+     * the reference to the sample, and must release it.
+     */
+    @FunctionalInterface
+    interface SampleHandler {
+        void handle(long sample) throws Throwable;
+    }
+
+    private final SampleHandler handler;
+    private final FrameMapper mapper;
+    private final FrameAllocations allocations = new FrameAllocations();
+
+    // Only used on the streaming thread
+    private long frames = 0;
+    private long errors = 0;
+
+    /**
+     * Create a FrameGrabber that passes the frames of the AppSink to the
+     * consumer. The consumer is called on the streaming thread of the AppSink.
+     * <p>
+     * The callback function lives as long as the program, so only create one
+     * FrameGrabber for every AppSink. Close the FrameGrabber after the
+     * pipeline has been stopped.
+     *
+     * @param appsink  the AppSink
+     * @param consumer the consumer of the frames
+     */
+    public FrameGrabber(AppSink appsink, FrameConsumer consumer) {
+        var mapper = new FrameMapper();
+        this.mapper = mapper;
+        this.handler = sample -> {
+            try {
+                if (mapper.process(sample, consumer))
+                    frames++;
+            } finally {
+                unref(sample);
+            }
+        };
+        install(appsink);
+    }
+
+    /**
+     * Create a FrameGrabber that passes the samples of the AppSink to a
+     * handler.
+     */
+    FrameGrabber(AppSink appsink, SampleHandler handler) {
+        this.handler = handler;
+        this.mapper = null;
+        install(appsink);
+    }
+
+    private void install(AppSink appsink) {
+        try {
+            var newSample = MethodHandles.lookup()
+                    .findVirtual(FrameGrabber.class, "newSample",
+                            MethodType.methodType(int.class, long.class, long.class))
+                    .bindTo(this);
+            var stub = LINKER.upcallStub(newSample, FunctionDescriptor.of(JAVA_INT, JAVA_LONG, JAVA_LONG), Arena.global());
+
+            // The callbacks struct is copied by the AppSink
+            try (var arena = Arena.ofConfined()) {
+                var callbacks = arena.allocate(CALLBACKS);
+                callbacks.set(ADDRESS, NEW_SAMPLE, stub);
+                SET_CALLBACKS.invokeExact(appsink.handle(), callbacks, MemorySegment.NULL, MemorySegment.NULL);
+            }
+        } catch (Throwable t) {
+            throw new IllegalStateException("Cannot install the AppSink callbacks", t);
+        }
+    }
+
+    /**
+     * The number of frames that were passed to the consumer.
+     */
+    public long getFrames() {
+        return frames;
+    }
+
+    /**
+     * The number of bytes that were allocated on the Java heap by the
+     * streaming thread while it handled the frames.
+     */
+    public long getAllocatedBytes() {
+        return allocations.sum();
+    }
+
+    /**
+     * Release the caps of the last frame. Call this after the pipeline has
+     * been stopped.
+     */
+    @Override
+    public void close() {
+        if (mapper != null)
+            mapper.close();
+    }
+
+    // Called by the AppSink on the streaming thread. An exception must not
+    // escape from here, because that would crash the JVM.
+    private int newSample(long appsink, long userData) {
+        long start = FrameAllocations.now();
+        try {
+            long sample = (long) PULL_SAMPLE.invokeExact(appsink);
+            if (sample == 0)
+                return GST_FLOW_EOS;
+            handler.handle(sample);
+        } catch (Throwable t) {
+            if (errors++ == 0)
+                System.err.printf("Cannot process frame: %s%n", t);
+        } finally {
+            allocations.since(start);
+        }
+        return GST_FLOW_OK;
+    }
+}
@@ -0,0 +1,94 @@
+package io.github.jwharm.javagi.examples.screenrec;
+
+import org.freedesktop.gstreamer.gst.Caps;
+import org.freedesktop.gstreamer.gst.MapInfo;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+
+import static io.github.jwharm.javagi.examples.screenrec.GstFunctions.*;
+import static java.lang.foreign.ValueLayout.JAVA_LONG;
+
+/**
+ * Maps the buffer of a sample and passes it to a {@link FrameConsumer}.
+ * <p>
+ * The GstMapInfo struct is allocated once, and the caps are only read again
+ * when they change, so a FrameMapper can only be used by one thread at a
+ * time.
+ * <p>
+ * GStreamer reuses the memory of the buffers in its buffer pools, so the
+ * frames are mapped at the same few addresses over and over again. The
+ * read-only views of the pixels are cached by address and size, so after the
+ * first frames, no new MemorySegment objects are created.
+ */
+final class FrameMapper implements AutoCloseable {
+
+    private static final int VIEWS = 16;
+
+    private final MemorySegment mapInfo = Arena.ofAuto().allocate(MapInfo.getMemoryLayout());
+    private long caps = 0;
+    private FrameFormat format;
+
+    // The cached views, replaced round-robin
+    private final long[] viewAddresses = new long[VIEWS];
+    private final MemorySegment[] views = new MemorySegment[VIEWS];
+    private int nextView = 0;
+
+    /**
+     * Map the buffer of the sample read-only, and pass it to the consumer.
+     * The sample is not released.
+     *
+     * @return true when the consumer was called
+     */
+    boolean process(long sample, FrameConsumer consumer) throws Throwable {
+        long buffer = (long) SAMPLE_GET_BUFFER.invokeExact(sample);
+        long sampleCaps = (long) SAMPLE_GET_CAPS.invokeExact(sample);
+        if (buffer == 0 || sampleCaps == 0)
+            return false;
+
+        if ((int) BUFFER_MAP.invokeExact(buffer, mapInfo, GST_MAP_READ) == 0)
+            return false;
+        try {
+            long size = mapInfo.get(JAVA_LONG, MAP_SIZE);
+
+            // Read the format when the caps have changed. A reference to the
+            // caps is kept, so the pointer cannot be reused for other caps.
+            if (sampleCaps != caps) {
+                long ref = ref(sampleCaps);
+                close();
+                caps = ref;
+                format = FrameFormat.of(new Caps(MemorySegment.ofAddress(caps)), size);
+            }
+
+            var pixels = view(mapInfo.get(JAVA_LONG, MAP_DATA), size);
+            long pts = ALL.get(JAVA_LONG, buffer + BUFFER_PTS);
+            consumer.accept(pixels, format, pts);
+            return true;
+        } finally {
+            BUFFER_UNMAP.invokeExact(buffer, mapInfo);
+        }
+    }
+
+    // Get a cached read-only view of the memory, or create it
+    private MemorySegment view(long address, long size) {
+        for (int i = 0; i < VIEWS; i++)
+            if (viewAddresses[i] == address && views[i].byteSize() == size)
+                return views[i];
+
+        var view = ALL.asSlice(address, size).asReadOnly();
+        viewAddresses[nextView] = address;
+        views[nextView] = view;
+        nextView = (nextView + 1) % VIEWS;
+        return view;
+    }
+
+    /**
+     * Release the caps of the last frame.
+     */
+    @Override
+    public void close() {
+        if (caps != 0)
+            unref(caps);
+        caps = 0;
+    }
+}
@@ -0,0 +1,234 @@
+package io.github.jwharm.javagi.examples.screenrec;
+
+import org.freedesktop.gstreamer.app.AppSink;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Passes the frames of an AppSink to a pool of worker threads.
+ * <p>
+ * The streaming thread of the AppSink only pulls the sample and puts it in a
+ * bounded queue, so capturing and encoding continue at full speed while the
+ * frames are analyzed in parallel. The queue holds a reference to every
+ * sample (and so to its buffer). A worker maps the buffer, calls the
+ * consumer, and releases the sample, so the buffer goes back to GStreamer as
+ * soon as it has been processed.
+ * <p>
+ * When the queue is full, either the oldest frame in the queue or the new
+ * frame is dropped, depending on the {@link DropPolicy}. The queue is a ring
+ * of native pointers, so handing a frame over doesn't create garbage. The
+ * bytes that are allocated while the frames are handled are measured (see
+ * {@link #getAllocatedBytes()}), so this can be verified.
+ * <p>
+ * The consumer is called from multiple threads at the same time, and the
+ * frames are not always processed in order; use the presentation timestamp
+ * to order them.
+ */
+public final class FrameWorkerPool implements AutoCloseable {
+
+    /**
+     * Which frame to drop when the queue is full.
+     */
+    public enum DropPolicy {
+        /** Drop the oldest frame in the queue, so the workers see recent frames */
+        DROP_OLDEST,
+        /** Drop the new frame, so the frames in the queue are processed */
+        DROP_NEWEST
+    }
+
+    private final FrameConsumer consumer;
+    private final DropPolicy policy;
+    private final Thread[] workers;
+    private final FrameGrabber grabber;
+    private final FrameAllocations allocations = new FrameAllocations();
+
+    // The queue of samples, protected by the lock
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final long[] queue;
+    private int head = 0;
+    private int size = 0;
+    private int maxSize = 0;
+    private long depthSum = 0;
+    private long offered = 0;
+    private boolean closed = false;
+
+    private final LongAdder processed = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+
+    /**
+     * Create a FrameWorkerPool and start the workers.
+     *
+     * @param appsink  the AppSink, with caps with a packed video format
+     * @param consumer the consumer of the frames; it must be thread-safe
+     * @param workers  the number of worker threads
+     * @param capacity the maximum number of frames in the queue
+     * @param policy   which frame to drop when the queue is full
+     */
+    public FrameWorkerPool(AppSink appsink, FrameConsumer consumer, int workers, int capacity, DropPolicy policy) {
+        this.consumer = consumer;
+        this.policy = policy;
+        this.queue = new long[Math.max(1, capacity)];
+        this.workers = new Thread[workers];
+        for (int i = 0; i < workers; i++)
+            this.workers[i] = Thread.ofPlatform().daemon().name("FrameWorker-" + i).start(this::work);
+        grabber = new FrameGrabber(appsink, this::offer);
+    }
+
+    // Called on the streaming thread with a new sample
+    private void offer(long sample) {
+        long drop = 0;
+        lock.lock();
+        try {
+            if (closed) {
+                drop = sample;
+            } else if (size == queue.length && policy == DropPolicy.DROP_NEWEST) {
+                drop = sample;
+            } else {
+                if (size == queue.length) {
+                    drop = queue[head];
+                    head = (head + 1) % queue.length;
+                    size--;
+                }
+                queue[(head + size) % queue.length] = sample;
+                size++;
+                maxSize = Math.max(maxSize, size);
+                notEmpty.signal();
+            }
+            depthSum += size;
+            offered++;
+        } finally {
+            lock.unlock();
+        }
+
+        // Release the dropped sample outside the lock
+        if (drop != 0) {
+            dropped.increment();
+            GstFunctions.unref(drop);
+        }
+    }
+
+    // Take a sample from the queue, or return 0 when the pool is closed
+    private long take() throws InterruptedException {
+        lock.lock();
+        try {
+            while (size == 0 && !closed)
+                notEmpty.await();
+            if (size == 0)
+                return 0;
+            long sample = queue[head];
+            head = (head + 1) % queue.length;
+            size--;
+            return sample;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // The loop of a worker thread
+    private void work() {
+        long errors = 0;
+        try (var mapper = new FrameMapper()) {
+            long sample;
+            while ((sample = take()) != 0) {
+                long start = FrameAllocations.now();
+                try {
+                    if (mapper.process(sample, consumer))
+                        processed.increment();
+                } catch (Throwable t) {
+                    if (errors++ == 0)
+                        System.err.printf("Cannot process frame: %s%n", t);
+                } finally {
+                    GstFunctions.unref(sample);
+                    allocations.since(start);
+                }
+            }
+        } catch (InterruptedException ignored) {
+        }
+    }
+
+    /**
+     * The number of frames in the queue.
+     */
+    public int getDepth() {
+        lock.lock();
+        try {
+            return size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * The highest number of frames that were in the queue at the same time.
+     */
+    public int getMaxDepth() {
+        lock.lock();
+        try {
+            return maxSize;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * The average number of frames in the queue, measured every time a frame
+     * was added.
+     */
+    public double getAverageDepth() {
+        lock.lock();
+        try {
+            return offered == 0 ? 0 : (double) depthSum / offered;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * The number of frames that were processed by the consumer.
+     */
+    public long getProcessed() {
+        return processed.sum();
+    }
+
+    /**
+     * The number of frames that were dropped because the queue was full.
+     */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * The number of bytes that were allocated on the Java heap while the
+     * frames were handed over and processed, by the streaming thread and the
+     * workers together. This includes the allocations of the consumer.
+     */
+    public long getAllocatedBytes() {
+        return grabber.getAllocatedBytes() + allocations.sum();
+    }
+
+    /**
+     * Let the workers process the frames in the queue, and stop them. Frames
+     * that arrive after this are dropped.
+     */
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        for (var worker : workers) {
+            try {
+                worker.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package io.github.jwharm.javagi.examples.screenrec;
+
+import org.freedesktop.gstreamer.gst.Buffer;
+import org.freedesktop.gstreamer.gst.MapInfo;
+
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.Linker;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.SymbolLookup;
+import java.lang.foreign.ValueLayout;
+import java.lang.invoke.MethodHandle;
+
+import static java.lang.foreign.MemoryLayout.PathElement.groupElement;
+import static java.lang.foreign.ValueLayout.*;
+
+/**
+ * Panama downcalls to the GStreamer functions that are used for every frame.
+ * They are called directly instead of through the Java-GI bindings, so no
+ * Java proxy objects are created for the samples, buffers and caps.
+ * <p>
+ * The pointers to samples, buffers and caps are passed and returned as
+ * {@code long} values, so the downcalls don't create a MemorySegment object
+ * for every frame. Fields of native structs are read through {@link #ALL}, a
+ * segment that spans the whole address space.
+ */
+final class GstFunctions {
+
+    static final Linker LINKER = Linker.nativeLinker();
+
+    // The GStreamer libraries have already been loaded by Java-GI
+    private static final SymbolLookup LOOKUP = SymbolLookup.loaderLookup();
+
+    // A pointer, passed as a long
+    private static final ValueLayout.OfLong POINTER = JAVA_LONG;
+
+    static final MethodHandle PULL_SAMPLE = downcall("gst_app_sink_pull_sample",
+            FunctionDescriptor.of(POINTER, POINTER));
+    static final MethodHandle SET_CALLBACKS = downcall("gst_app_sink_set_callbacks",
+            FunctionDescriptor.ofVoid(ADDRESS, ADDRESS, ADDRESS, ADDRESS));
+    static final MethodHandle SAMPLE_GET_BUFFER = downcall("gst_sample_get_buffer",
+            FunctionDescriptor.of(POINTER, POINTER), Linker.Option.critical(false));
+    static final MethodHandle SAMPLE_GET_CAPS = downcall("gst_sample_get_caps",
+            FunctionDescriptor.of(POINTER, POINTER), Linker.Option.critical(false));
+    static final MethodHandle BUFFER_MAP = downcall("gst_buffer_map",
+            FunctionDescriptor.of(JAVA_INT, POINTER, ADDRESS, JAVA_INT));
+    static final MethodHandle BUFFER_UNMAP = downcall("gst_buffer_unmap",
+            FunctionDescriptor.ofVoid(POINTER, ADDRESS));
+    private static final MethodHandle MINI_OBJECT_REF = downcall("gst_mini_object_ref",
+            FunctionDescriptor.of(POINTER, POINTER));
+    private static final MethodHandle MINI_OBJECT_UNREF = downcall("gst_mini_object_unref",
+            FunctionDescriptor.ofVoid(POINTER));
+
+    // The whole address space, to read native memory without creating a
+    // segment for every struct
+    static final MemorySegment ALL = MemorySegment.NULL.reinterpret(Long.MAX_VALUE);
+
+    // The fields of GstMapInfo and GstBuffer that are read
+    static final long MAP_DATA = MapInfo.getMemoryLayout().byteOffset(groupElement("data"));
+    static final long MAP_SIZE = MapInfo.getMemoryLayout().byteOffset(groupElement("size"));
+    static final long BUFFER_PTS = Buffer.getMemoryLayout().byteOffset(groupElement("pts"));
+
+    static final int GST_MAP_READ = 1;
+    static final int GST_FLOW_OK = 0;
+    static final int GST_FLOW_EOS = -3;
+
+    private GstFunctions() {
+    }
+
+    private static MethodHandle downcall(String name, FunctionDescriptor descriptor, Linker.Option... options) {
+        var symbol = LOOKUP.find(name).orElseThrow(() -> new UnsatisfiedLinkError("Cannot find " + name));
+        return LINKER.downcallHandle(symbol, descriptor, options);
+    }
+
+    /**
+     * Add a reference to a GstMiniObject (a sample, buffer or caps).
+     */
+    static long ref(long object) {
+        try {
+            return (long) MINI_OBJECT_REF.invokeExact(object);
+        } catch (Throwable t) {
+            throw new AssertionError(t);
+        }
+    }
+
+    /**
+     * Remove a reference from a GstMiniObject. It is freed when the last
+     * reference is removed.
+     */
+    static void unref(long object) {
+        try {
+            MINI_OBJECT_UNREF.invokeExact(object);
+        } catch (Throwable t) {
+            throw new AssertionError(t);
+        }
+    }
+}
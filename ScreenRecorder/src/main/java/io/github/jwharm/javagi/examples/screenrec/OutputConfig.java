@@ -0,0 +1,74 @@
+package io.github.jwharm.javagi.examples.screenrec;
+
+/**
+ * The configuration of one output of the screen recorder.
+ *
+ * @param file    the file to write
+ * @param codec   the video codec
+ * @param bitrate the bitrate in kbit/s, or 0 for the default of the encoder
+ * @param width   the width of the video, or 0 to use the captured size
+ * @param height  the height of the video, or 0 to use the captured size
+ */
+public record OutputConfig(String file, Codec codec, int bitrate, int width, int height) {
+
+    /**
+     * The supported video codecs, with the GStreamer encoder and muxer.
+     */
+    public enum Codec {
+        THEORA("theoraenc", "oggmux", "bitrate", 1),
+        VP8("vp8enc", "webmmux", "target-bitrate", 1000),
+        H264("x264enc", "matroskamux", "bitrate", 1);
+
+        final String encoder;
+        final String muxer;
+        final String bitrateProperty;
+        final int bitrateScale;
+
+        Codec(String encoder, String muxer, String bitrateProperty, int bitrateScale) {
+            this.encoder = encoder;
+            this.muxer = muxer;
+            this.bitrateProperty = bitrateProperty;
+            this.bitrateScale = bitrateScale;
+        }
+    }
+
+    /**
+     * Parse an output in the format {@code file[:codec[:bitrate[:WIDTHxHEIGHT]]]},
+     * for example {@code preview.webm:vp8:500:640x360}.
+     *
+     * @throws IllegalArgumentException when the format is invalid
+     */
+    public static OutputConfig parse(String spec) {
+        String[] parts = spec.trim().split(":");
+        var codec = parts.length > 1 ? Codec.valueOf(parts[1].toUpperCase()) : Codec.THEORA;
+        int bitrate = parts.length > 2 ? Integer.parseInt(parts[2]) : 0;
+        int width = 0, height = 0;
+        if (parts.length > 3) {
+            String[] size = parts[3].split("x");
+            if (size.length != 2)
+                throw new IllegalArgumentException("Invalid size: " + parts[3]);
+            width = Integer.parseInt(size[0]);
+            height = Integer.parseInt(size[1]);
+        }
+        return new OutputConfig(parts[0], codec, bitrate, width, height);
+    }
+
+    /**
+     * The file name pattern of the segments: the file name with a segment
+     * number before the extension, for example "archive-%05d.ogg". When the
+     * file name already contains a "%", it is used as the pattern.
+     */
+    String segmentPattern() {
+        if (file.contains("%"))
+            return file;
+        int dot = file.lastIndexOf('.');
+        return dot <= 0 ? file + "-%05d" : file.substring(0, dot) + "-%05d" + file.substring(dot);
+    }
+
+    /**
+     * The caps of the encoded video, or null when the captured size is used.
+     */
+    String caps() {
+        return width > 0 && height > 0 ? "video/x-raw,width=" + width + ",height=" + height : null;
+    }
+}
@@ -0,0 +1,196 @@
+package io.github.jwharm.javagi.examples.screenrec;
+
+import org.freedesktop.gstreamer.gst.Element;
+import org.freedesktop.gstreamer.gst.PadProbeReturn;
+import org.freedesktop.gstreamer.gst.PadProbeType;
+import org.gnome.glib.GLib;
+import org.gnome.gobject.GObjects;
+import org.gnome.gobject.Value;
+import org.javagi.gobject.JavaClosure;
+import org.javagi.gobject.types.Types;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Measures the throughput of the branches of a recording pipeline: the fill
+ * level of the queues and their "overrun" signals, and in benchmark mode,
+ * with pad probes, the number of encoded frames, the frames that the queue of
+ * the branch dropped, and the latency of the encoder.
+ * <p>
+ * A pad probe calls into Java for every buffer, so the probes are only
+ * installed in benchmark mode. The memory use doesn't grow with the length of
+ * the recording: the frames in the encoder are matched by their timestamp in
+ * a fixed ring, and the latency is calculated from the last 8192 frames.
+ */
+public final class PipelineStats {
+
+    // The counters of a branch. The levels are only used on the main thread.
+    private static final class Branch {
+        final Element queue;
+        final int capacity;
+        final LongAdder in = new LongAdder();
+        final LongAdder out = new LongAdder();
+        final LongAdder overruns = new LongAdder();
+        final LongAdder encoded = new LongAdder();
+        long levelSum = 0;
+        int levelSamples = 0;
+        int maxLevel = 0;
+
+        // The timestamps of the last frames that entered the encoder and the
+        // time at which they entered it, and the latencies of the last frames
+        final long[] enteredPts = new long[ENTERED];
+        final long[] enteredTime = new long[ENTERED];
+        long enteredCount = 0;
+        final long[] latencies = new long[LATENCY_SAMPLES];
+        long latencyCount = 0;
+
+        Branch(Element queue, int capacity) {
+            this.queue = queue;
+            this.capacity = capacity;
+            Arrays.fill(enteredPts, CLOCK_TIME_NONE);
+        }
+
+        // Runs on the streaming thread of the encoder
+        synchronized void enter(long pts, long now) {
+            int index = (int) (enteredCount++ % ENTERED);
+            enteredPts[index] = pts;
+            enteredTime[index] = now;
+        }
+
+        // Runs on the streaming thread after the encoder. An encoder can
+        // reorder, merge or drop frames, so the frame is looked up by its
+        // timestamp; frames that never leave the encoder are overwritten.
+        synchronized void leave(long pts, long now) {
+            for (int i = 0; i < ENTERED; i++) {
+                if (enteredPts[i] == pts) {
+                    latencies[(int) (latencyCount++ % LATENCY_SAMPLES)] = now - enteredTime[i];
+                    enteredPts[i] = CLOCK_TIME_NONE;
+                    return;
+                }
+            }
+        }
+    }
+
+    // GST_CLOCK_TIME_NONE
+    private static final long CLOCK_TIME_NONE = -1;
+
+    // The number of frames in an encoder that can be matched
+    private static final int ENTERED = 256;
+
+    // The number of frames that the encoder latency is calculated from
+    private static final int LATENCY_SAMPLES = 8192;
+
+    private final Map<String, Branch> branches = new LinkedHashMap<>();
+    private final boolean probes;
+
+    /**
+     * Create a PipelineStats.
+     *
+     * @param probes whether to install the pad probes (in benchmark mode)
+     */
+    public PipelineStats(boolean probes) {
+        this.probes = probes;
+    }
+
+    /**
+     * Watch a branch of the pipeline. The "overrun" signals of the queue are
+     * counted (a queue emits "overrun" when it is full). With pad probes, the
+     * buffers that enter and leave the queue are counted, and when there is
+     * an encoder, the encoded frames are counted and the encoder latency is
+     * measured. The encoder must keep the timestamps of the frames.
+     *
+     * @param name     the name of the branch
+     * @param queue    the queue at the start of the branch
+     * @param capacity the maximum number of buffers in the queue
+     * @param encoder  the encoder of the branch, or null
+     */
+    public void watchBranch(String name, Element queue, int capacity, Element encoder) {
+        var branch = new Branch(queue, capacity);
+        branches.put(name, branch);
+        GObjects.signalConnectClosure(queue, "overrun", new JavaClosure(branch.overruns::increment), false);
+
+        if (!probes)
+            return;
+        queue.getStaticPad("sink").addProbe(Set.of(PadProbeType.BUFFER), (_, _) -> {
+            branch.in.increment();
+            return PadProbeReturn.OK;
+        });
+        queue.getStaticPad("src").addProbe(Set.of(PadProbeType.BUFFER), (_, _) -> {
+            branch.out.increment();
+            return PadProbeReturn.OK;
+        });
+
+        if (encoder == null)
+            return;
+        encoder.getStaticPad("sink").addProbe(Set.of(PadProbeType.BUFFER), (_, info) -> {
+            long pts = info.getBuffer().readPts();
+            if (pts != CLOCK_TIME_NONE)
+                branch.enter(pts, System.nanoTime());
+            return PadProbeReturn.OK;
+        });
+        encoder.getStaticPad("src").addProbe(Set.of(PadProbeType.BUFFER), (_, info) -> {
+            long pts = info.getBuffer().readPts();
+            if (pts != CLOCK_TIME_NONE)
+                branch.leave(pts, System.nanoTime());
+            branch.encoded.increment();
+            return PadProbeReturn.OK;
+        });
+    }
+
+    /**
+     * Read the fill level of every queue. Call this regularly from the main
+     * loop.
+     */
+    public void sampleLevels() {
+        var value = new Value();
+        value.init(Types.UINT);
+        for (var branch : branches.values()) {
+            branch.queue.getProperty("current-level-buffers", value);
+            int level = value.getUint();
+            branch.levelSum += level;
+            branch.levelSamples++;
+            branch.maxLevel = Math.max(branch.maxLevel, level);
+        }
+        value.unset();
+    }
+
+    /**
+     * Print the results.
+     *
+     * @param nanos the time that the pipeline ran
+     */
+    public void print(long nanos) {
+        for (var entry : branches.entrySet()) {
+            var branch = entry.getValue();
+            GLib.print("%s:\n", entry.getKey());
+            if (branch.encoded.sum() > 0)
+                GLib.print("  encoded %d frames, %.1f fps\n",
+                        (int) branch.encoded.sum(), branch.encoded.sum() * 1e9 / nanos);
+            if (probes)
+                GLib.print("  %d frames dropped\n", (int) (branch.in.sum() - branch.out.sum()));
+            GLib.print("  %d overruns, queue %.1f average, %d max (of %d)\n",
+                    (int) branch.overruns.sum(),
+                    branch.levelSamples == 0 ? 0 : (double) branch.levelSum / branch.levelSamples,
+                    branch.maxLevel, branch.capacity);
+
+            synchronized (branch) {
+                if (branch.latencyCount == 0)
+                    continue;
+                long[] sorted = Arrays.copyOf(branch.latencies, (int) Math.min(branch.latencyCount, LATENCY_SAMPLES));
+                Arrays.sort(sorted);
+                GLib.print("  encoder latency p50 %.1f ms, p95 %.1f ms, p99 %.1f ms, max %.1f ms\n",
+                        percentile(sorted, 50) / 1e6, percentile(sorted, 95) / 1e6,
+                        percentile(sorted, 99) / 1e6, sorted[sorted.length - 1] / 1e6);
+            }
+        }
+    }
+
+    private static long percentile(long[] sorted, double percentile) {
+        int index = (int) Math.ceil(sorted.length * percentile / 100) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+    }
+}
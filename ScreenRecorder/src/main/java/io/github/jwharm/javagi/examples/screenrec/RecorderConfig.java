@@ -0,0 +1,62 @@
+package io.github.jwharm.javagi.examples.screenrec;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The configuration of the screen recorder.
+ *
+ * @param source    the source element, in gst-launch syntax, for example
+ *                  "ximagesrc" or "videotestsrc pattern=ball"
+ * @param width     the width of the recording, or 0 to use the size of the source
+ * @param height    the height of the recording, or 0 to use the size of the source
+ * @param framerate the number of frames per second
+ * @param duration  the duration of the recording in seconds, or 0 to record until
+ *                  the program is stopped
+ * @param outputs   the outputs: every output is encoded in a separate branch
+ * @param queueSize the maximum number of frames in the queue of an output
+ * @param segment   the duration of a segment in seconds, or 0 to write every
+ *                  output to a single file
+ * @param segments  the number of segments of every output that are kept on disk,
+ *                  or 0 to keep all segments
+ * @param benchmark measure the throughput of the pipeline instead of recording in real time
+ */
+public record RecorderConfig(String source, int width, int height, int framerate,
+                             int duration, List<OutputConfig> outputs, int queueSize,
+                             int segment, int segments, boolean benchmark) {
+
+    /**
+     * Read the configuration from the system properties {@code screenrec.source},
+     * {@code screenrec.width}, {@code screenrec.height}, {@code screenrec.framerate},
+     * {@code screenrec.duration}, {@code screenrec.outputs} (a comma-separated
+     * list, see {@link OutputConfig#parse}), {@code screenrec.queue},
+     * {@code screenrec.segment}, {@code screenrec.segments} and
+     * {@code screenrec.benchmark}.
+     */
+    public static RecorderConfig fromProperties() {
+        String outputs = System.getProperty("screenrec.outputs", "recording.ogg");
+        return new RecorderConfig(
+                System.getProperty("screenrec.source", "ximagesrc"),
+                Integer.getInteger("screenrec.width", 0),
+                Integer.getInteger("screenrec.height", 0),
+                Integer.getInteger("screenrec.framerate", 5),
+                Integer.getInteger("screenrec.duration", 5),
+                Arrays.stream(outputs.split(",")).map(OutputConfig::parse).toList(),
+                Integer.getInteger("screenrec.queue", 30),
+                Integer.getInteger("screenrec.segment", 0),
+                Integer.getInteger("screenrec.segments", 10),
+                Boolean.getBoolean("screenrec.benchmark"));
+    }
+
+    /**
+     * The caps of the captured video.
+     */
+    String caps() {
+        var caps = new StringBuilder("video/x-raw,framerate=").append(framerate).append("/1");
+        if (width > 0)
+            caps.append(",width=").append(width);
+        if (height > 0)
+            caps.append(",height=").append(height);
+        return caps.toString();
+    }
+}
@@ -0,0 +1,158 @@
+package io.github.jwharm.javagi.examples.screenrec;
+
+import org.freedesktop.gstreamer.app.AppSink;
+import org.freedesktop.gstreamer.gst.*;
+import org.javagi.base.GErrorException;
+
+import java.util.Objects;
+import java.util.stream.Stream;
+
+/**
+ * Builds the recording pipeline from a {@link RecorderConfig}:
+ * <pre>
+ *                                                   / queue | converter | appsink
+ * source | videoscale | capsfilter | converter | tee - queue | scaler | converter | [capsfilter] | encoder | muxer | file
+ *                                                   \ queue | ...   (one branch for every output)
+ * </pre>
+ * Every branch starts with a leaky queue, which runs the rest of the branch
+ * in its own streaming thread. When an encoder is too slow, its queue fills
+ * up and drops the oldest frames, instead of blocking the tee and with it the
+ * capture and the other branches.
+ * <p>
+ * When segments are configured, the muxer and file sink of an output are
+ * replaced by a {@code splitmuxsink}, which starts a new file (at a
+ * keyframe, which it requests from the encoder) when a segment is complete,
+ * and deletes the oldest file when there are too many. The segments are
+ * finalized asynchronously, with a separate muxer and file sink for every
+ * segment, so the capture and encoding continue without interruption.
+ * <p>
+ * In benchmark mode, a {@code videotestsrc} source is not live and produces
+ * exactly the configured number of frames as fast as possible, and the sinks
+ * don't synchronize to the clock. The throughput of every branch is measured
+ * with {@link PipelineStats}.
+ */
+public final class RecorderPipeline {
+
+    // GstQueueLeaky: drop the oldest buffers in the queue
+    private static final int LEAKY_DOWNSTREAM = 2;
+
+    private final Pipeline pipeline;
+    private final AppSink appsink;
+    private final PipelineStats stats;
+
+    /**
+     * Build the pipeline.
+     *
+     * @param config the configuration
+     * @throws GErrorException when the source description is invalid
+     * @throws IllegalStateException when an element could not be created
+     */
+    public RecorderPipeline(RecorderConfig config) throws GErrorException {
+        pipeline = new Pipeline("screen-recorder");
+        stats = new PipelineStats(config.benchmark());
+        Element source = Gst.parseLaunch(config.source());
+        Element scale = ElementFactory.make("videoscale", "video-scaler");
+        Element filter = ElementFactory.make("capsfilter", "caps-filter");
+        Element conv = ElementFactory.make("videoconvert", "video-converter");
+        Element tee = ElementFactory.make("tee", "tee");
+        Element queue = ElementFactory.make("queue", "appsink-queue");
+        Element conv2 = ElementFactory.make("videoconvert", "appsink-converter");
+        Element sink = ElementFactory.make("appsink", "appsink");
+        require(source, scale, filter, conv, tee, queue, conv2, sink);
+
+        filter.set("caps", Caps.fromString(config.caps()), null);
+
+        // The appsink receives BGRx frames, and drops old frames when processing is too slow
+        appsink = (AppSink) sink;
+        appsink.setCaps(Caps.fromString("video/x-raw,format=BGRx"));
+        appsink.setMaxBuffers(2);
+        appsink.setDrop(true);
+
+        if (config.benchmark()) {
+            if (config.source().startsWith("videotestsrc")) {
+                source.set("is-live", false, null);
+                if (config.duration() > 0)
+                    source.set("num-buffers", config.framerate() * config.duration(), null);
+            }
+            appsink.setSync(false);
+        }
+
+        pipeline.addMany(source, scale, filter, conv, tee, queue, conv2, sink, null);
+        source.linkMany(scale, filter, conv, tee, null);
+        addBranch(tee, queue, config.queueSize());
+        queue.linkMany(conv2, sink, null);
+        stats.watchBranch("appsink", queue, config.queueSize(), null);
+
+        for (int i = 0; i < config.outputs().size(); i++)
+            addOutput(tee, config.outputs().get(i), i, config);
+    }
+
+    // Add a branch that encodes the video and writes it to a file, or to segments
+    private void addOutput(Element tee, OutputConfig output, int index, RecorderConfig config) {
+        String name = "output" + index + "-";
+        Element queue = ElementFactory.make("queue", name + "queue");
+        Element scale = ElementFactory.make("videoscale", name + "scaler");
+        Element conv = ElementFactory.make("videoconvert", name + "converter");
+        Element filter = ElementFactory.make("capsfilter", name + "caps-filter");
+        Element encoder = ElementFactory.make(output.codec().encoder, name + "encoder");
+        require(queue, scale, conv, filter, encoder);
+
+        if (output.caps() != null)
+            filter.set("caps", Caps.fromString(output.caps()), null);
+        if (output.bitrate() > 0)
+            encoder.set(output.codec().bitrateProperty, output.bitrate() * output.codec().bitrateScale, null);
+        if (output.codec() == OutputConfig.Codec.VP8)
+            encoder.set("deadline", 1L, null); // realtime
+
+        pipeline.addMany(queue, scale, conv, filter, encoder, null);
+        addBranch(tee, queue, config.queueSize());
+        queue.linkMany(scale, conv, filter, encoder, null);
+        stats.watchBranch(output.file(), queue, config.queueSize(), encoder);
+
+        if (config.segment() > 0) {
+            Element splitmux = ElementFactory.make("splitmuxsink", name + "splitmux-sink");
+            require(splitmux);
+            splitmux.set("location", output.segmentPattern(), null);
+            splitmux.set("max-size-time", config.segment() * 1_000_000_000L, null);
+            splitmux.set("max-files", config.segments(), null);
+            splitmux.set("muxer-factory", output.codec().muxer, null);
+            splitmux.set("send-keyframe-requests", true, null);
+            splitmux.set("async-finalize", true, null);
+            pipeline.add(splitmux);
+            encoder.link(splitmux);
+        } else {
+            Element muxer = ElementFactory.make(output.codec().muxer, name + "muxer");
+            Element filesink = ElementFactory.make("filesink", name + "file-sink");
+            require(muxer, filesink);
+            filesink.set("location", output.file(), null);
+            pipeline.addMany(muxer, filesink, null);
+            encoder.linkMany(muxer, filesink, null);
+        }
+    }
+
+    // Link a leaky queue to a new source pad of the tee
+    private static void addBranch(Element tee, Element queue, int queueSize) {
+        queue.set("leaky", LEAKY_DOWNSTREAM, null);
+        queue.set("max-size-buffers", queueSize, null);
+        queue.set("max-size-bytes", 0, null);
+        queue.set("max-size-time", 0L, null);
+        tee.requestPadSimple("src_%u").link(queue.getStaticPad("sink"));
+    }
+
+    private static void require(Element... elements) {
+        if (Stream.of(elements).anyMatch(Objects::isNull))
+            throw new IllegalStateException("One element could not be created.");
+    }
+
+    public Pipeline getPipeline() {
+        return pipeline;
+    }
+
+    public AppSink getAppSink() {
+        return appsink;
+    }
+
+    public PipelineStats getStats() {
+        return stats;
+    }
+}
@@ -1,27 +1,34 @@
 package io.github.jwharm.javagi.examples.screenrec;
 
+import org.javagi.base.GErrorException;
 import org.javagi.base.Out;
-import org.javagi.gobject.JavaClosure;
-import org.freedesktop.gstreamer.app.AppSink;
 import org.freedesktop.gstreamer.gst.*;
 import org.gnome.glib.GError;
 import org.gnome.glib.GLib;
 import org.gnome.glib.MainLoop;
 import org.gnome.glib.Source;
-import org.gnome.gobject.GObjects;
+
+import java.lang.foreign.MemorySegment;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import static java.lang.foreign.ValueLayout.JAVA_BYTE;
 
 /**
  * Record the screen and save it to a file.
- * The recording will automatically stop after 5 seconds.
+ * The recording will automatically stop after 5 seconds (by default).
+ * With a duration of 0, it runs until the program is stopped.
  * <p>
  * There is also an AppSink configured, that receives the stream data
  * and can perform custom actions on it.
+ * <p>
+ * The source, size, framerate and duration are configured with system
+ * properties (see {@link RecorderConfig}). In benchmark mode, the throughput
+ * of the pipeline is measured and printed.
  */
 public class ScreenRecorder {
 
-    private final static String FILENAME = "recording.ogg";
-    private final static int TIMEOUT  = 5 * 1000; // milliseconds
-
     private final MainLoop loop;
 
     private boolean busCall(Bus bus, Message msg) {
@@ -41,22 +48,40 @@ public class ScreenRecorder {
             loop.quit();
         }
 
+        // The splitmuxsink has finished writing a segment
+        else if (msg.readType().contains(MessageType.ELEMENT)) {
+            var structure = msg.getStructure();
+            if (structure != null && structure.getName().equals("splitmuxsink-fragment-closed"))
+                GLib.print("Finished segment: %s\n", structure.getString("location"));
+        }
+
         return true;
     }
 
+    // The sum of the sampled pixel values, and the number of sampled pixels
+    private final LongAdder brightness = new LongAdder();
+    private final LongAdder sampled = new LongAdder();
+
     /**
-     * This callback function is triggered when the appsink receives a data sample.
+     * This callback function is triggered for every frame that the appsink
+     * receives. It runs on a worker thread, and calculates the average
+     * brightness of the frames, using every 16th pixel of every 16th row.
      */
-    public void newSample(Element sink) {
-        var appsink = (AppSink) sink;
-
-        // Get the buffer
-        var sample = appsink.getLastSample();
-        if (sample != null) {
-            var buffer = sample.getBuffer();
-            // We don't do anything with the data here - just print an asterisk for every sample
-            GLib.print("*");
+    public void processFrame(MemorySegment pixels, FrameFormat format, long pts) {
+        long sum = 0;
+        long count = 0;
+        for (int y = 0; y < format.height(); y += 16) {
+            long row = (long) y * format.stride();
+            for (int x = 0; x < format.width(); x += 16) {
+                long pixel = row + x * 4L;
+                sum += (pixels.get(JAVA_BYTE, pixel) & 0xFF)
+                        + (pixels.get(JAVA_BYTE, pixel + 1) & 0xFF)
+                        + (pixels.get(JAVA_BYTE, pixel + 2) & 0xFF);
+                count += 3;
+            }
         }
+        brightness.add(sum);
+        sampled.add(count);
     }
 
     public ScreenRecorder(String[] args) {
@@ -65,26 +90,17 @@ public class ScreenRecorder {
 
         loop = new MainLoop(null, false);
 
-        // Create gstreamer elements
-        Pipeline pipeline = new Pipeline("screen-recorder");
-        Element source = ElementFactory.make("ximagesrc", "ximage-source");
-        Element conv = ElementFactory.make("videoconvert", "video-converter");
-        Element tee = ElementFactory.make("tee", "tee");
-        Element queue1 = ElementFactory.make("queue", "queue1");
-        Element appsink = ElementFactory.make("appsink", "appsink");
-        Element queue2 = ElementFactory.make("queue", "queue2");
-        Element encoder = ElementFactory.make("theoraenc", "theora-encoder");
-        Element muxer = ElementFactory.make("oggmux", "ogg-muxer");
-        Element filesink = ElementFactory.make("filesink", "file-sink");
-
-        if (source == null || tee == null || queue1 == null || appsink == null || queue2 == null
-                || muxer == null || encoder == null || conv == null || filesink == null) {
-            GLib.printerr("One element could not be created. Exiting.\n");
+        // Create the pipeline
+        RecorderConfig config;
+        RecorderPipeline recorder;
+        try {
+            config = RecorderConfig.fromProperties();
+            recorder = new RecorderPipeline(config);
+        } catch (GErrorException | IllegalArgumentException | IllegalStateException e) {
+            GLib.printerr("Cannot create the pipeline: %s Exiting.\n", e.getMessage());
             return;
         }
-
-        // Set the output filename to the filesink element
-        filesink.set("location", FILENAME, null);
+        Pipeline pipeline = recorder.getPipeline();
 
         // Watch the message bus for messages
         Bus bus = pipeline.getBus();
@@ -94,41 +110,73 @@ public class ScreenRecorder {
         }
         int busWatchId = bus.addWatch(0, this::busCall);
 
-        // Let the appsink invoke the newSample() method (declare above)
-        appsink.set("emit-signals", true, null);
-        JavaClosure closure = new JavaClosure(() -> newSample(appsink));
-        GObjects.signalConnectClosure(appsink, "new-sample", closure, false);
-
-        // Add all elements into the pipeline
-        pipeline.addMany(source, conv, tee, queue1, appsink, queue2, encoder, muxer, filesink, null);
-
-        /* Link the pads:
-         *                                                         / queue1 | appsink
-         * ximagesrc | video/x-raw,framerate=5/1 | converter | tee
-         *                                                         \ queue2 | encoder | muxer | file-output
-         */
-        source.linkFiltered(conv, Caps.simple("video/x-raw", "framerate", Fraction.getType(), 5, 1, null));
-        conv.link(tee);
-        tee.requestPadSimple("src_%u").link(queue1.getStaticPad("sink"));
-        tee.requestPadSimple("src_%u").link(queue2.getStaticPad("sink"));
-        queue1.link(appsink);
-        queue2.linkMany(encoder, muxer, filesink, null);
+        // Let the appsink pass the frames to the processFrame() method (declared above),
+        // on two worker threads. When the workers are too slow, the oldest frames in the
+        // queue are dropped.
+        var workers = new FrameWorkerPool(recorder.getAppSink(), this::processFrame,
+                2, 4, FrameWorkerPool.DropPolicy.DROP_OLDEST);
 
         // Set the pipeline state
-        GLib.print("Now recording to file: %s\n", FILENAME);
+        for (var output : config.outputs())
+            GLib.print("Now recording to file: %s\n", output.file());
+        long start = System.nanoTime();
         pipeline.setState(State.PLAYING);
 
-        // Stop after 5 seconds
-        GLib.timeoutAddOnce(TIMEOUT, loop::quit);
+        // Measure the fill level of the queues ten times per second
+        var stats = recorder.getStats();
+        int statsId = GLib.timeoutAdd(GLib.PRIORITY_DEFAULT, 100, () -> {
+            stats.sampleLevels();
+            return true;
+        });
+
+        // Stop after the configured duration. The end-of-stream event lets the
+        // muxer finish the file; the bus watch quits the main loop when it arrives.
+        // In benchmark mode, a test source stops by itself.
+        if (config.duration() > 0 && !(config.benchmark() && config.source().startsWith("videotestsrc")))
+            GLib.timeoutAddOnce(config.duration() * 1000, () -> pipeline.sendEvent(Event.eos()));
+
+        // When the program is stopped (for example with Ctrl+C), finish the files
+        // before the JVM exits
+        var stopped = new CountDownLatch(1);
+        var shutdownHook = new Thread(() -> {
+            pipeline.sendEvent(Event.eos());
+            try {
+                stopped.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException ignored) {
+            }
+        });
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
 
         // Iterate
         GLib.print("Running...\n");
         loop.run();
+        long nanos = System.nanoTime() - start;
 
         // Out of the main loop, clean up nicely
         GLib.print("Returned, stopping recording\n");
         pipeline.setState(State.NULL);
         Source.remove(busWatchId);
+        Source.remove(statsId);
+
+        workers.close();
+
+        GLib.print("Processed %d frames, dropped %d, queue depth %.1f average, %d max\n",
+                (int) workers.getProcessed(), (int) workers.getDropped(),
+                workers.getAverageDepth(), workers.getMaxDepth());
+        long handled = workers.getProcessed() + workers.getDropped();
+        if (handled > 0)
+            GLib.print("Allocated %d bytes per frame on the Java heap while handling the frames\n",
+                    (int) (workers.getAllocatedBytes() / handled));
+        if (sampled.sum() > 0)
+            GLib.print("Average brightness %d\n", (int) (brightness.sum() / sampled.sum()));
+        stats.print(nanos);
+
+        try {
+            Runtime.getRuntime().removeShutdownHook(shutdownHook);
+        } catch (IllegalStateException ignored) {
+            // The JVM is already shutting down
+        }
+        stopped.countDown();
     }
 
     public static void main(String[] args) {
@@ -13,6 +13,17 @@ repositories {
 dependencies {
     implementation("io.github.jwharm.cairobindings:cairo:1.18.4.1")
     implementation("org.java-gi:gtk:0.14.1")
+    implementation("org.java-gi:gstreamer:0.14.1")
+}
+
+sourceSets {
+    main {
+        java {
+            // Play the sounds with the SoundEffects class from the PegSolitaire example
+            srcDir("../PegSolitaire/src/main/java")
+            include("**/SoundEffects.java")
+        }
+    }
 }
 
 application {
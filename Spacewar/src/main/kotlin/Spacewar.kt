@@ -19,6 +19,7 @@
 
 package io.github.jwharm.javagi.examples
 
+import io.github.jwharm.javagi.examples.pegsolitaire.SoundEffects
 import org.freedesktop.cairo.*
 import org.gnome.gdk.*
 import org.gnome.gio.ApplicationFlags
@@ -29,6 +30,7 @@ import org.gnome.gtk.Application
 import org.gnome.gtk.ApplicationWindow
 import org.gnome.gtk.EventControllerKey
 import org.gnome.gtk.Picture
+import org.javagi.base.GErrorException
 import java.lang.foreign.Arena
 import kotlin.math.*
 import kotlin.random.Random
@@ -137,6 +139,13 @@ data class Star(
     var scale: Double = 0.0
 )
 
+// Sound effects
+
+const val FIRE_SOUND = "/usr/share/sounds/freedesktop/stereo/audio-volume-change.oga"
+const val HIT_SOUND = "/usr/share/sounds/freedesktop/stereo/camera-shutter.oga"
+
+var sounds: SoundEffects? = null
+
 // Players
 
 var player1 = Player()
@@ -203,6 +212,16 @@ fun main(args: Array<String>) {
     initTrigonometricTables()
     reset()
 
+    try {
+        sounds = SoundEffects("autoaudiosink", 1024 * 1024)
+        sounds?.preload(FIRE_SOUND, HIT_SOUND)
+    } catch (e: GErrorException) {
+        System.err.println("Cannot create the sound effects: ${e.message}")
+    } catch (e: IllegalStateException) {
+        // Play without sound
+        System.err.println("Cannot create the sound effects: ${e.message}")
+    }
+
     val app = Application(
         "io.github.jwharm.javagi.examples.spacewar",
         setOf(ApplicationFlags.DEFAULT_FLAGS)
@@ -243,6 +262,7 @@ fun main(args: Array<String>) {
     }
 
     app.run(args)
+    sounds?.close()
 }
 
 /**
@@ -705,6 +725,7 @@ fun applyPhysicsToPlayer(player: Player) {
                 m.exploded = false
 
                 player.ticksUntilCanFire += TICKS_BETWEEN_FIRE
+                sounds?.play(FIRE_SOUND)
             }
         } else {
             player.ticksUntilCanFire--
@@ -778,6 +799,7 @@ fun onCollision(p: Player, m: Missile) {
     m.ticksToLive = MISSILE_EXPLOSION_TICKS_TO_LIVE
     m.p.vx = 0.0
     m.p.vy = 0.0
+    sounds?.play(HIT_SOUND)
 }
 
 /**